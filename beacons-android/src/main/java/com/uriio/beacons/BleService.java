@@ -233,6 +233,8 @@ public class BleService extends Service implements AdvertisersManager.Listener {
 
             broadcastBeaconEvent(EVENT_ADVERTISER_STOPPED, null);
         } else if (BluetoothAdapter.STATE_ON == state) {
+            mAdvertisersManager.onBluetoothOn();
+
             List<Beacon> activeBeacons = Beacons.getActiveIfAny();
             if (null != activeBeacons) {
                 for (int i = activeBeacons.size() - 1; i >= 0; i--) {
@@ -318,19 +320,28 @@ public class BleService extends Service implements AdvertisersManager.Listener {
             return false;
         }
 
-        // stop current advertiser for this beacon
         Advertiser existingAdvertiser = beacon.getAdvertiser();
         if (null != existingAdvertiser) {
-            mAdvertisersManager.stopAdvertiser(existingAdvertiser);
             mEstimatedPDUCount += existingAdvertiser.clearPDUCount();
         }
 
-        Advertiser advertiser = beacon.recreateAdvertiser(this);
+        // reuse the advertiser unless the stack may still call back its previous start
+        boolean recycle = null != existingAdvertiser && mAdvertisersManager.canRecycle(existingAdvertiser);
+        Advertiser advertiser = beacon.recreateAdvertiser(this, recycle);
         if (null == advertiser) {
+            if (null != existingAdvertiser) {
+                mAdvertisersManager.stopAdvertiser(existingAdvertiser);
+            }
             return false;
         }
 
         advertiser.setManager(mAdvertisersManager);
+        advertiser.setSchedulingWeight(beacon.getSchedulingWeight());
+
+        if (null != existingAdvertiser) {
+            // stop and start as one operation, so a queued start is replaced instead of repeated
+            return mAdvertisersManager.restartAdvertiser(existingAdvertiser, advertiser);
+        }
         return mAdvertisersManager.startAdvertiser(advertiser);
     }
 
@@ -421,8 +432,9 @@ public class BleService extends Service implements AdvertisersManager.Listener {
     private void stopBeacon(Beacon beacon, boolean remove) {
         Advertiser advertiser = beacon.getAdvertiser();
 
-        // stop the beacon's advertising
-        if (null != advertiser && advertiser.getStatus() == Advertiser.STATUS_RUNNING) {
+        // stop the beacon's advertising, its queued or pending start, or its turns on a hardware slot
+        if (null != advertiser && (advertiser.getStatus() == Advertiser.STATUS_RUNNING
+                || mAdvertisersManager.isActive(advertiser))) {
             mAdvertisersManager.stopAdvertiser(advertiser);
             mEstimatedPDUCount += advertiser.clearPDUCount();
         }
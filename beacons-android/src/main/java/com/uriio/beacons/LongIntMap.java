@@ -0,0 +1,157 @@
+package com.uriio.beacons;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing hash map from primitive long keys to int values. Uses linear probing with
+ * backward-shift deletion, so there are no tombstones and no boxing or allocation per operation.
+ */
+public class LongIntMap {
+    private static final float MAX_LOAD_FACTOR = 0.6f;
+
+    private final int mMissingValue;
+
+    private long[] mKeys;
+    private int[] mValues;
+    private boolean[] mUsed;
+    private int mMask;
+    private int mSize = 0;
+    private int mResizeThreshold;
+
+    /**
+     * @param expectedSize    Number of entries that should fit without resizing.
+     * @param missingValue    Value returned by get() and remove() for keys that are not present.
+     */
+    public LongIntMap(int expectedSize, int missingValue) {
+        mMissingValue = missingValue;
+        allocate(tableSizeFor(expectedSize));
+    }
+
+    public LongIntMap(int expectedSize) {
+        this(expectedSize, -1);
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public int get(long key) {
+        int mask = mMask;
+        for (int i = slotOf(key); ; i = (i + 1) & mask) {
+            if (!mUsed[i]) return mMissingValue;
+            if (mKeys[i] == key) return mValues[i];
+        }
+    }
+
+    public boolean containsKey(long key) {
+        int mask = mMask;
+        for (int i = slotOf(key); ; i = (i + 1) & mask) {
+            if (!mUsed[i]) return false;
+            if (mKeys[i] == key) return true;
+        }
+    }
+
+    /**
+     * @return The previous value for the key, or the missing value if the key was not present.
+     */
+    public int put(long key, int value) {
+        int mask = mMask;
+        int i = slotOf(key);
+        for (; mUsed[i]; i = (i + 1) & mask) {
+            if (mKeys[i] == key) {
+                int previous = mValues[i];
+                mValues[i] = value;
+                return previous;
+            }
+        }
+
+        mUsed[i] = true;
+        mKeys[i] = key;
+        mValues[i] = value;
+
+        if (++mSize > mResizeThreshold) {
+            rehash(mKeys.length << 1);
+        }
+
+        return mMissingValue;
+    }
+
+    /**
+     * @return The removed value, or the missing value if the key was not present.
+     */
+    public int remove(long key) {
+        int mask = mMask;
+        int i = slotOf(key);
+        for (; ; i = (i + 1) & mask) {
+            if (!mUsed[i]) return mMissingValue;
+            if (mKeys[i] == key) break;
+        }
+
+        int removed = mValues[i];
+
+        // shift back following entries of the same probe run into the freed slot
+        int free = i;
+        for (int j = (i + 1) & mask; mUsed[j]; j = (j + 1) & mask) {
+            int home = slotOf(mKeys[j]);
+            // move the entry if its home slot is not cyclically within (free, j]
+            if (free <= j ? (home <= free || home > j) : (home <= free && home > j)) {
+                mKeys[free] = mKeys[j];
+                mValues[free] = mValues[j];
+                free = j;
+            }
+        }
+        mUsed[free] = false;
+        --mSize;
+
+        return removed;
+    }
+
+    public void clear() {
+        Arrays.fill(mUsed, false);
+        mSize = 0;
+    }
+
+    private int slotOf(long key) {
+        // 64-bit finalizer from MurmurHash3, since EIDs and hashes are fine but counters are not
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        return (int) key & mMask;
+    }
+
+    private void allocate(int tableSize) {
+        mKeys = new long[tableSize];
+        mValues = new int[tableSize];
+        mUsed = new boolean[tableSize];
+        mMask = tableSize - 1;
+        mResizeThreshold = (int) (tableSize * MAX_LOAD_FACTOR);
+    }
+
+    private void rehash(int tableSize) {
+        long[] keys = mKeys;
+        int[] values = mValues;
+        boolean[] used = mUsed;
+
+        allocate(tableSize);
+
+        int mask = mMask;
+        for (int k = 0; k < keys.length; k++) {
+            if (used[k]) {
+                int i = slotOf(keys[k]);
+                while (mUsed[i]) i = (i + 1) & mask;
+
+                mUsed[i] = true;
+                mKeys[i] = keys[k];
+                mValues[i] = values[k];
+            }
+        }
+    }
+
+    private static int tableSizeFor(int expectedSize) {
+        int size = 16;
+        while (size * MAX_LOAD_FACTOR < expectedSize && size < (1 << 30)) {
+            size <<= 1;
+        }
+        return size;
+    }
+}
@@ -2,9 +2,10 @@ package com.uriio.beacons;
 
 import android.util.Log;
 
-import java.nio.ByteBuffer;
-import java.security.MessageDigest;
+import com.uriio.beacons.crypto.CryptoProviders;
+
 import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
 import java.util.UUID;
 
 /**
@@ -20,7 +21,23 @@ public class Util {
     /**
      * Hex characters used for binary to hex conversion
      */
-    private static final byte[] _hexAlphabet = "0123456789abcdef".getBytes();
+    private static final char[] _hexDigits = "0123456789abcdef".toCharArray();
+
+    /**
+     * Value of each ASCII char as a hex digit, or -1
+     */
+    private static final byte[] _hexValues = new byte[128];
+
+    static {
+        Arrays.fill(_hexValues, (byte) -1);
+        for (int i = 0; i < 10; i++) {
+            _hexValues['0' + i] = (byte) i;
+        }
+        for (int i = 0; i < 6; i++) {
+            _hexValues['a' + i] = (byte) (10 + i);
+            _hexValues['A' + i] = (byte) (10 + i);
+        }
+    }
 
     public static void log(String tag, String message) {
         if (VERBOSE) {
@@ -33,24 +50,144 @@ public class Util {
         log("NoTag", message);
     }
 
+    /**
+     * @param hexStr    Hex string, in any letter case.
+     * @return Binary data, or null if the string has an odd length or non-hex characters.
+     */
     public static byte[] hexToBin(String hexStr) {
+        if (0 != hexStr.length() % 2) return null;
+
         byte[] raw = new byte[hexStr.length() / 2];
+        return hexToBin(hexStr, 0, hexStr.length(), raw, 0) < 0 ? null : raw;
+    }
 
-        byte[] hexStrBytes = hexStr.getBytes();
-        for (int i = 0; i < raw.length; i++) {
-            byte nibble1 = hexStrBytes[i * 2], nibble2 = hexStrBytes[i * 2 + 1];
-            nibble1 = (byte) (nibble1 >= 'a' ? nibble1 - 'a' + 10 : nibble1 - '0');
-            nibble2 = (byte) (nibble2 >= 'a' ? nibble2 - 'a' + 10 : nibble2 - '0');
+    /**
+     * Parses hex characters into a buffer.
+     * @param hex          Hex characters, in any letter case.
+     * @param start        Start index
+     * @param end          End index (exclusive)
+     * @param out          Output buffer
+     * @param outOffset    Offset in the output buffer
+     * @return Number of bytes written, or -1 if the range has an odd length or non-hex characters.
+     */
+    public static int hexToBin(CharSequence hex, int start, int end, byte[] out, int outOffset) {
+        if (0 != (end - start) % 2) return -1;
+
+        // validate first, so that nothing is written for bad input
+        for (int i = start; i < end; i++) {
+            if (hexValue(hex.charAt(i)) < 0) return -1;
+        }
 
-            raw[i] = (byte) ((nibble1 << 4) | nibble2);
+        for (int i = start; i < end; i += 2) {
+            out[outOffset++] = (byte) (hexValue(hex.charAt(i)) << 4 | hexValue(hex.charAt(i + 1)));
         }
+        return (end - start) / 2;
+    }
 
-        return raw;
+    /**
+     * @return The value of a hex digit, or -1 if the char isn't one.
+     */
+    public static int hexValue(char c) {
+        return c < 128 ? _hexValues[c] : -1;
     }
 
     public static UUID binToUUID(byte[] raw) {
-        ByteBuffer byteBuffer = ByteBuffer.wrap(raw);
-        return new UUID(byteBuffer.getLong(), byteBuffer.getLong());
+        return binToUUID(raw, 0);
+    }
+
+    public static UUID binToUUID(byte[] raw, int offset) {
+        return new UUID(getLong(raw, offset), getLong(raw, offset + 8));
+    }
+
+    public static void uuidToBin(UUID uuid, byte[] out, int offset) {
+        putLong(out, offset, uuid.getMostSignificantBits());
+        putLong(out, offset + 8, uuid.getLeastSignificantBits());
+    }
+
+    /**
+     * Parses a UUID, with or without dashes (8-4-4-4-12 hex digits), into 16 bytes.
+     * @return False if the string is not a UUID, in which case nothing is written.
+     */
+    public static boolean uuidToBin(CharSequence uuid, byte[] out, int offset) {
+        int length = uuid.length();
+        if (32 == length) {
+            return 16 == hexToBin(uuid, 0, 32, out, offset);
+        }
+
+        if (36 != length || '-' != uuid.charAt(8) || '-' != uuid.charAt(13)
+                || '-' != uuid.charAt(18) || '-' != uuid.charAt(23)) {
+            return false;
+        }
+
+        for (int i = 0; i < 36; i++) {
+            if (8 != i && 13 != i && 18 != i && 23 != i && hexValue(uuid.charAt(i)) < 0) return false;
+        }
+
+        hexToBin(uuid, 0, 8, out, offset);
+        hexToBin(uuid, 9, 13, out, offset + 4);
+        hexToBin(uuid, 14, 18, out, offset + 6);
+        hexToBin(uuid, 19, 23, out, offset + 8);
+        hexToBin(uuid, 24, 36, out, offset + 10);
+        return true;
+    }
+
+    /**
+     * Appends a UUID in its canonical form (lowercase, 8-4-4-4-12 digits) without creating
+     * a UUID object or intermediate strings.
+     */
+    public static StringBuilder appendUUID(StringBuilder sb, long mostSigBits, long leastSigBits) {
+        appendHex(sb, mostSigBits >>> 32, 8).append('-');
+        appendHex(sb, mostSigBits >>> 16, 4).append('-');
+        appendHex(sb, mostSigBits, 4).append('-');
+        appendHex(sb, leastSigBits >>> 48, 4).append('-');
+        return appendHex(sb, leastSigBits, 12);
+    }
+
+    /**
+     * Reads a big-endian long.
+     */
+    public static long getLong(byte[] raw, int offset) {
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = value << 8 | (raw[offset + i] & 0xff);
+        }
+        return value;
+    }
+
+    /**
+     * Writes a big-endian long.
+     */
+    public static void putLong(byte[] out, int offset, long value) {
+        for (int i = 7; i >= 0; i--) {
+            out[offset + i] = (byte) value;
+            value >>>= 8;
+        }
+    }
+
+    /**
+     * Writes a big-endian int.
+     */
+    public static void putInt(byte[] out, int offset, int value) {
+        out[offset] = (byte) (value >>> 24);
+        out[offset + 1] = (byte) (value >>> 16);
+        out[offset + 2] = (byte) (value >>> 8);
+        out[offset + 3] = (byte) value;
+    }
+
+    /**
+     * Reads a big-endian int.
+     */
+    public static int getInt(byte[] data, int offset) {
+        return (data[offset] & 0xff) << 24 | (data[offset + 1] & 0xff) << 16
+                | (data[offset + 2] & 0xff) << 8 | data[offset + 3] & 0xff;
+    }
+
+    /**
+     * Writes a big-endian short.
+     */
+    public static void putShort(byte[] out, int offset, int value) {
+        out[offset] = (byte) (value >>> 8);
+        out[offset + 1] = (byte) value;
     }
 
     public static String binToHex(byte[] raw) {
@@ -58,20 +195,21 @@ public class Util {
     }
 
     public static String binToHex(byte[] raw, int offset, int len) {
-        byte[] hex = new byte[len * 2];
-        for (int i = 0; i < len; i++) {
-            hex[i * 2] = _hexAlphabet[(0xff & raw[offset + i]) >>> 4];
-            hex[i * 2 + 1] = _hexAlphabet[raw[offset + i] & 0x0f];
-        }
+        char[] hex = new char[len * 2];
+        binToHex(raw, offset, len, hex, 0);
         return new String(hex);
     }
 
+    /**
+     * Converts to lowercase hex, with a separator after each byte (the last one included).
+     */
     public static String binToHex(byte[] raw, int offset, int len, char separator) {
-        byte[] hex = new byte[len * 3];
+        char[] hex = new char[len * 3];
         for (int i = 0; i < len; i++) {
-            hex[i * 3] = _hexAlphabet[(0xff & raw[offset + i]) >>> 4];
-            hex[i * 3 + 1] = _hexAlphabet[raw[offset + i] & 0x0f];
-            hex[i * 3 + 2] = (byte) separator;
+            int b = raw[offset + i];
+            hex[i * 3] = _hexDigits[(b >> 4) & 0x0f];
+            hex[i * 3 + 1] = _hexDigits[b & 0x0f];
+            hex[i * 3 + 2] = separator;
         }
         return new String(hex);
     }
@@ -80,6 +218,41 @@ public class Util {
         return binToHex(raw, 0, raw.length, separator);
     }
 
+    /**
+     * Converts to lowercase hex into a char buffer.
+     * @return Number of chars written (twice the number of bytes).
+     */
+    public static int binToHex(byte[] raw, int offset, int len, char[] out, int outOffset) {
+        for (int i = 0; i < len; i++) {
+            int b = raw[offset + i];
+            out[outOffset++] = _hexDigits[(b >> 4) & 0x0f];
+            out[outOffset++] = _hexDigits[b & 0x0f];
+        }
+        return len * 2;
+    }
+
+    /**
+     * Appends lowercase hex to a StringBuilder.
+     */
+    public static StringBuilder appendHex(StringBuilder sb, byte[] raw, int offset, int len) {
+        sb.ensureCapacity(sb.length() + len * 2);
+        for (int i = 0; i < len; i++) {
+            int b = raw[offset + i];
+            sb.append(_hexDigits[(b >> 4) & 0x0f]).append(_hexDigits[b & 0x0f]);
+        }
+        return sb;
+    }
+
+    /**
+     * Appends the lowest digits of a value as lowercase hex, most significant first.
+     */
+    private static StringBuilder appendHex(StringBuilder sb, long value, int digits) {
+        for (int shift = (digits - 1) * 4; shift >= 0; shift -= 4) {
+            sb.append(_hexDigits[(int) (value >>> shift) & 0x0f]);
+        }
+        return sb;
+    }
+
     public static byte[] computeSha1Digest(byte[] data) {
         return computeDigest(data, "SHA-1");
     }
@@ -90,7 +263,7 @@ public class Util {
 
     private static byte[] computeDigest(byte[] data, String algorithm) {
         try {
-            return MessageDigest.getInstance(algorithm).digest(data);
+            return CryptoProviders.getMessageDigest(algorithm).digest(data);
         } catch (NoSuchAlgorithmException e) {
             return null;
         }
@@ -0,0 +1,138 @@
+package com.uriio.beacons.ble;
+
+import android.annotation.TargetApi;
+import android.bluetooth.le.AdvertiseData;
+import android.bluetooth.le.AdvertiseSettings;
+import android.os.Build;
+import android.os.ParcelUuid;
+
+import java.util.Arrays;
+
+/**
+ * Shares the immutable settings and payloads given to the Bluetooth stack between advertisers.
+ * There are only 24 distinct settings (mode, TX power level, connectable), built once each.
+ * Payloads are cached by content in a small direct-mapped table, so refreshing an advertiser
+ * with unchanged bytes reuses the same {@link AdvertiseData} and allocates nothing.
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+class AdvertiseCache {
+    private static final int MODES = 3;
+    private static final int POWER_LEVELS = 4;
+
+    /** Number of cached payloads; a power of 2 */
+    private static final int DATA_CACHE_SIZE = 64;
+
+    private static final int KIND_SERVICE_DATA = 0;
+    private static final int KIND_MANUFACTURER_DATA = 1;
+
+    private static final AdvertiseSettings[] _settings = new AdvertiseSettings[MODES * POWER_LEVELS * 2];
+
+    // payload table; each key is the payload bytes, owned by the cache
+    private static final int[] _dataKinds = new int[DATA_CACHE_SIZE];
+    private static final int[] _dataIds = new int[DATA_CACHE_SIZE];
+    private static final byte[][] _dataKeys = new byte[DATA_CACHE_SIZE][];
+    private static final AdvertiseData[] _data = new AdvertiseData[DATA_CACHE_SIZE];
+
+    /** Last service UUID, reused since all service data is Eddystone's so far */
+    private static ParcelUuid _serviceUuid = null;
+    private static int _serviceId = -1;
+
+    /**
+     * @return Shared settings. Timeout is not set, see the Advertiser constructor.
+     */
+    static synchronized AdvertiseSettings getSettings(@Advertiser.Mode int mode,
+                                                      @Advertiser.Power int txPowerLevel,
+                                                      boolean connectable) {
+        if (mode < 0 || mode >= MODES || txPowerLevel < 0 || txPowerLevel >= POWER_LEVELS) {
+            throw new IllegalArgumentException("Invalid mode " + mode + " or TX power level " + txPowerLevel);
+        }
+
+        int index = (mode * POWER_LEVELS + txPowerLevel) * 2 + (connectable ? 1 : 0);
+        AdvertiseSettings settings = _settings[index];
+        if (null == settings) {
+            settings = _settings[index] = new AdvertiseSettings.Builder()
+                    .setAdvertiseMode(mode)
+                    .setTxPowerLevel(txPowerLevel)
+                    .setConnectable(connectable)
+                    .build();
+        }
+        return settings;
+    }
+
+    /**
+     * @param serviceId      16-bit service UUID, also listed as complete service UUIDs
+     * @param serviceData    Service data; not kept, so the caller may reuse it
+     * @param length         Service data length, from the start of the array
+     * @return Shared advertise data with the service UUID and data only.
+     */
+    static synchronized AdvertiseData getServiceData(int serviceId, byte[] serviceData, int length) {
+        int index = indexOf(KIND_SERVICE_DATA, serviceId, serviceData, length);
+        if (null != _data[index]) return _data[index];
+
+        if (serviceId != _serviceId) {
+            _serviceUuid = Advertiser.parcelUuidFromShortUUID(serviceId);
+            _serviceId = serviceId;
+        }
+
+        ParcelUuid serviceUuid = _serviceUuid;
+        return _data[index] = new AdvertiseData.Builder()
+                .setIncludeDeviceName(false)
+                .setIncludeTxPowerLevel(false)
+                .addServiceData(serviceUuid, _dataKeys[index])
+                .addServiceUuid(serviceUuid)
+                .build();
+    }
+
+    /**
+     * @param manufacturerData    Manufacturer specific data; not kept, so the caller may reuse it
+     * @return Shared advertise data with the manufacturer data only.
+     */
+    static synchronized AdvertiseData getManufacturerData(int companyId, byte[] manufacturerData) {
+        int index = indexOf(KIND_MANUFACTURER_DATA, companyId, manufacturerData, manufacturerData.length);
+        if (null != _data[index]) return _data[index];
+
+        return _data[index] = new AdvertiseData.Builder()
+                .setIncludeDeviceName(false)
+                .setIncludeTxPowerLevel(false)
+                .addManufacturerData(companyId, _dataKeys[index])
+                .build();
+    }
+
+    static synchronized void clear() {
+        Arrays.fill(_settings, null);
+        Arrays.fill(_dataKeys, null);
+        Arrays.fill(_data, null);
+    }
+
+    /**
+     * Finds the table entry for a payload. On a miss the entry is replaced with a copy of the
+     * payload as key, and a null value for the caller to build.
+     */
+    private static int indexOf(int kind, int id, byte[] payload, int length) {
+        int hash = kind * 31 + id;
+        for (int i = 0; i < length; i++) {
+            hash = hash * 31 + payload[i];
+        }
+        int index = (hash ^ hash >>> 16) & (DATA_CACHE_SIZE - 1);
+
+        if (null != _dataKeys[index] && _dataKinds[index] == kind && _dataIds[index] == id
+                && equals(_dataKeys[index], payload, length)) {
+            return index;
+        }
+
+        _dataKinds[index] = kind;
+        _dataIds[index] = id;
+        _dataKeys[index] = Arrays.copyOf(payload, length);
+        _data[index] = null;
+        return index;
+    }
+
+    private static boolean equals(byte[] key, byte[] payload, int length) {
+        if (key.length != length) return false;
+
+        for (int i = 0; i < length; i++) {
+            if (key[i] != payload[i]) return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,282 @@
+package com.uriio.beacons.ble;
+
+import android.annotation.TargetApi;
+import android.bluetooth.le.AdvertiseData;
+import android.os.Build;
+import android.os.ParcelUuid;
+import android.util.SparseArray;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Builds the exact bytes of a legacy (31-byte) advertising or scan response PDU, as a sequence
+ * of AD structures (length, type, data). Fields that don't fit are rejected without modifying
+ * the PDU, so payload sizes are known before any call to the Bluetooth stack.
+ * The static measure methods compute sizes the same way the Android stack checks them.
+ */
+public class AdvertisePDU {
+    /** Maximum size of a legacy advertising or scan response PDU payload. */
+    public static final int MAX_SIZE = 31;
+
+    /** Size of the flags field, present in the advertising PDU of connectable advertisers. */
+    public static final int FLAGS_FIELD_SIZE = 3;
+
+    /** LE General Discoverable, BR/EDR not supported */
+    public static final byte FLAGS_GENERAL_DISCOVERABLE = 0x06;
+
+    private static final int FIELD_OVERHEAD = 2;
+
+    private static final int TYPE_FLAGS = 0x01;
+    private static final int TYPE_SERVICE_UUIDS_16_BIT = 0x03;
+    private static final int TYPE_SERVICE_UUIDS_32_BIT = 0x05;
+    private static final int TYPE_SERVICE_UUIDS_128_BIT = 0x07;
+    private static final int TYPE_COMPLETE_LOCAL_NAME = 0x09;
+    private static final int TYPE_TX_POWER_LEVEL = 0x0A;
+    private static final int TYPE_SERVICE_DATA_16_BIT = 0x16;
+    private static final int TYPE_SERVICE_DATA_32_BIT = 0x20;
+    private static final int TYPE_SERVICE_DATA_128_BIT = 0x21;
+    private static final int TYPE_MANUFACTURER_DATA = 0xFF;
+
+    private static final long BASE_UUID_LSB = 0x800000805F9B34FBL;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final byte[] mData = new byte[MAX_SIZE];
+    private int mSize = 0;
+
+    public int size() {
+        return mSize;
+    }
+
+    public int remaining() {
+        return MAX_SIZE - mSize;
+    }
+
+    public void clear() {
+        mSize = 0;
+    }
+
+    /**
+     * @return A copy of the PDU payload.
+     */
+    public byte[] toByteArray() {
+        return Arrays.copyOf(mData, mSize);
+    }
+
+    public boolean addFlags(byte flags) {
+        if (!beginField(TYPE_FLAGS, 1)) return false;
+        mData[mSize++] = flags;
+        return true;
+    }
+
+    /**
+     * Adds the complete lists of service UUIDs, one list per UUID size that is present.
+     * @return False if the lists don't fit; then none are added.
+     */
+    public boolean addServiceUuids(Collection<UUID> uuids) {
+        if (getServiceUuidsSize(uuids) > remaining()) return false;
+
+        addUuidList(uuids, 2, TYPE_SERVICE_UUIDS_16_BIT);
+        addUuidList(uuids, 4, TYPE_SERVICE_UUIDS_32_BIT);
+        addUuidList(uuids, 16, TYPE_SERVICE_UUIDS_128_BIT);
+        return true;
+    }
+
+    public boolean addServiceData(UUID uuid, byte[] data) {
+        int uuidSize = getUuidSize(uuid);
+        int type = 2 == uuidSize ? TYPE_SERVICE_DATA_16_BIT
+                : 4 == uuidSize ? TYPE_SERVICE_DATA_32_BIT : TYPE_SERVICE_DATA_128_BIT;
+        int dataSize = null == data ? 0 : data.length;
+
+        if (!beginField(type, uuidSize + dataSize)) return false;
+        putUuid(uuid, uuidSize);
+        if (dataSize > 0) {
+            System.arraycopy(data, 0, mData, mSize, dataSize);
+            mSize += dataSize;
+        }
+        return true;
+    }
+
+    public boolean addManufacturerData(int companyId, byte[] data) {
+        int dataSize = null == data ? 0 : data.length;
+
+        if (!beginField(TYPE_MANUFACTURER_DATA, 2 + dataSize)) return false;
+        // company ID is little-endian
+        mData[mSize++] = (byte) companyId;
+        mData[mSize++] = (byte) (companyId >>> 8);
+        if (dataSize > 0) {
+            System.arraycopy(data, 0, mData, mSize, dataSize);
+            mSize += dataSize;
+        }
+        return true;
+    }
+
+    public boolean addTxPowerLevel(byte txPowerLevel) {
+        if (!beginField(TYPE_TX_POWER_LEVEL, 1)) return false;
+        mData[mSize++] = txPowerLevel;
+        return true;
+    }
+
+    public boolean addLocalName(String name) {
+        byte[] nameBytes = name.getBytes(UTF8);
+
+        if (!beginField(TYPE_COMPLETE_LOCAL_NAME, nameBytes.length)) return false;
+        System.arraycopy(nameBytes, 0, mData, mSize, nameBytes.length);
+        mSize += nameBytes.length;
+        return true;
+    }
+
+    /**
+     * Computes the PDU size of advertise data the way the Android stack validates it.
+     * @param data            Advertise data, or null
+     * @param includeFlags    Whether the flags field is added (connectable advertising PDU)
+     * @param localName       Name advertised if the data includes the device name
+     * @return PDU payload size; more than {@link #MAX_SIZE} means the advertiser can't start.
+     */
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    public static int measure(AdvertiseData data, boolean includeFlags, String localName) {
+        if (null == data) return 0;
+
+        int size = measureWithoutName(data, includeFlags);
+        if (data.getIncludeDeviceName() && null != localName) {
+            size += FIELD_OVERHEAD + localName.getBytes(UTF8).length;
+        }
+        return size;
+    }
+
+    /**
+     * Shortens a local name so that the advertise data including it fits in a PDU.
+     * @param data            Advertise data, or null
+     * @param includeFlags    Whether the flags field is added (connectable advertising PDU)
+     * @param name            Wanted local name
+     * @return The name, or its longest prefix that fits, or null if even an empty name doesn't fit.
+     */
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    public static String fitLocalName(AdvertiseData data, boolean includeFlags, String name) {
+        if (null == data || !data.getIncludeDeviceName()) return name;
+
+        return fitLocalName(name, MAX_SIZE - measureWithoutName(data, includeFlags) - FIELD_OVERHEAD);
+    }
+
+    /**
+     * @param name      Local name
+     * @param maxSize   Maximum encoded size, in bytes
+     * @return The longest prefix of the name that fits, not splitting surrogate pairs,
+     * or null if maxSize is negative.
+     */
+    public static String fitLocalName(String name, int maxSize) {
+        if (maxSize < 0) return null;
+
+        int size = 0;
+        int end = 0;
+        while (end < name.length()) {
+            int codePoint = name.codePointAt(end);
+            int codePointSize = codePoint < 0x80 ? 1 : codePoint < 0x800 ? 2 : codePoint < 0x10000 ? 3 : 4;
+            if (size + codePointSize > maxSize) break;
+
+            size += codePointSize;
+            end += Character.charCount(codePoint);
+        }
+
+        return end == name.length() ? name : name.substring(0, end);
+    }
+
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private static int measureWithoutName(AdvertiseData data, boolean includeFlags) {
+        int size = includeFlags ? FLAGS_FIELD_SIZE : 0;
+
+        if (null != data.getServiceUuids()) {
+            int num16 = 0, num32 = 0, num128 = 0;
+            for (ParcelUuid parcelUuid : data.getServiceUuids()) {
+                int uuidSize = getUuidSize(parcelUuid.getUuid());
+                if (2 == uuidSize) num16++;
+                else if (4 == uuidSize) num32++;
+                else num128++;
+            }
+            size += getUuidListSize(num16, 2) + getUuidListSize(num32, 4) + getUuidListSize(num128, 16);
+        }
+
+        for (Map.Entry<ParcelUuid, byte[]> entry : data.getServiceData().entrySet()) {
+            size += FIELD_OVERHEAD + getUuidSize(entry.getKey().getUuid())
+                    + (null == entry.getValue() ? 0 : entry.getValue().length);
+        }
+
+        SparseArray<byte[]> manufacturerData = data.getManufacturerSpecificData();
+        for (int i = 0; i < manufacturerData.size(); i++) {
+            byte[] value = manufacturerData.valueAt(i);
+            size += FIELD_OVERHEAD + 2 + (null == value ? 0 : value.length);
+        }
+
+        if (data.getIncludeTxPowerLevel()) {
+            size += FIELD_OVERHEAD + 1;
+        }
+
+        return size;
+    }
+
+    /**
+     * @return Size of a UUID in advertised data: 2 or 4 bytes for Bluetooth SIG short UUIDs, else 16.
+     */
+    public static int getUuidSize(UUID uuid) {
+        long msb = uuid.getMostSignificantBits();
+        if (BASE_UUID_LSB != uuid.getLeastSignificantBits() || 0x1000 != (msb & 0xffffffffL)) {
+            return 16;
+        }
+        return (msb >>> 32) <= 0xffff ? 2 : 4;
+    }
+
+    private static int getServiceUuidsSize(Collection<UUID> uuids) {
+        int num16 = 0, num32 = 0, num128 = 0;
+        for (UUID uuid : uuids) {
+            int uuidSize = getUuidSize(uuid);
+            if (2 == uuidSize) num16++;
+            else if (4 == uuidSize) num32++;
+            else num128++;
+        }
+        return getUuidListSize(num16, 2) + getUuidListSize(num32, 4) + getUuidListSize(num128, 16);
+    }
+
+    private static int getUuidListSize(int count, int uuidSize) {
+        return 0 == count ? 0 : FIELD_OVERHEAD + count * uuidSize;
+    }
+
+    private void addUuidList(Collection<UUID> uuids, int uuidSize, int type) {
+        int count = 0;
+        for (UUID uuid : uuids) {
+            if (getUuidSize(uuid) == uuidSize) count++;
+        }
+        if (0 == count) return;
+
+        beginField(type, count * uuidSize);
+        for (UUID uuid : uuids) {
+            if (getUuidSize(uuid) == uuidSize) putUuid(uuid, uuidSize);
+        }
+    }
+
+    /**
+     * Writes a UUID in little-endian order, as used over the air.
+     */
+    private void putUuid(UUID uuid, int uuidSize) {
+        if (16 == uuidSize) {
+            long lsb = uuid.getLeastSignificantBits();
+            long msb = uuid.getMostSignificantBits();
+            for (int i = 0; i < 8; i++, lsb >>>= 8) mData[mSize++] = (byte) lsb;
+            for (int i = 0; i < 8; i++, msb >>>= 8) mData[mSize++] = (byte) msb;
+        } else {
+            long shortUuid = uuid.getMostSignificantBits() >>> 32;
+            for (int i = 0; i < uuidSize; i++, shortUuid >>>= 8) mData[mSize++] = (byte) shortUuid;
+        }
+    }
+
+    private boolean beginField(int type, int dataSize) {
+        if (FIELD_OVERHEAD + dataSize > remaining()) return false;
+
+        mData[mSize++] = (byte) (1 + dataSize);
+        mData[mSize++] = (byte) type;
+        return true;
+    }
+}
@@ -66,6 +66,8 @@ public abstract class Advertiser extends AdvertiseCallback {
     private long mUnclearedPDUCount = 0;
     private long mLastPDUUpdateTime = 0;
 
+    private int mSchedulingWeight = 1;
+
     /**
      * Creates a ParcelUUID for a 16-bit or 32-bit short UUID
      * @param serviceId    Short UUID, either 16 or 32-bit
@@ -81,13 +83,9 @@ public abstract class Advertiser extends AdvertiseCallback {
     }
 
     public Advertiser(SettingsProvider provider) {
-        mAdvertiseSettings = new AdvertiseSettings.Builder()
-                .setAdvertiseMode(provider.getAdvertiseMode())
-                .setTxPowerLevel(provider.getTxPowerLevel())
-                .setConnectable(provider.isConnectable())
-                // oups! https://code.google.com/p/android/issues/detail?id=232219
-//                .setTimeout(provider.getTimeout())
-                .build();
+        // timeout is not set; oups! https://code.google.com/p/android/issues/detail?id=232219
+        mAdvertiseSettings = AdvertiseCache.getSettings(provider.getAdvertiseMode(),
+                provider.getTxPowerLevel(), provider.isConnectable());
     }
 
     @Override
@@ -134,6 +132,39 @@ public abstract class Advertiser extends AdvertiseCallback {
         return null;
     }
 
+    /**
+     * @return True if the advertiser uses the settings currently given by a provider.
+     */
+    public boolean hasSettings(SettingsProvider provider) {
+        // settings are interned, so equal settings are the same object
+        return mAdvertiseSettings == AdvertiseCache.getSettings(provider.getAdvertiseMode(),
+                provider.getTxPowerLevel(), provider.isConnectable());
+    }
+
+    /**
+     * Checks the advertise data and scan response sizes, as the Bluetooth stack would.
+     * @return  True if both fit into their PDUs, including the advertised local name, if any.
+     */
+    public boolean fitsPDU() {
+        String localName = getAdvertisedLocalName();
+
+        // the flags field is only added to connectable advertisements
+        return AdvertisePDU.measure(getAdvertiseData(), getAdvertiseSettings().isConnectable(),
+                localName) <= AdvertisePDU.MAX_SIZE
+                && AdvertisePDU.measure(getAdvertiseScanResponse(), false, localName) <= AdvertisePDU.MAX_SIZE;
+    }
+
+    /**
+     * @return Relative share of hardware slot time when advertisers take turns.
+     */
+    public int getSchedulingWeight() {
+        return mSchedulingWeight;
+    }
+
+    public void setSchedulingWeight(int weight) {
+        mSchedulingWeight = weight;
+    }
+
     public AdvertiseSettings getSettingsInEffect() {
         return mSettingsInEffect;
     }
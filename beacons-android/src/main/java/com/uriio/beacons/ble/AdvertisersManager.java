@@ -3,8 +3,12 @@ package com.uriio.beacons.ble;
 import android.annotation.TargetApi;
 import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothManager;
+import android.bluetooth.le.AdvertiseCallback;
 import android.bluetooth.le.BluetoothLeAdvertiser;
 import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
 
 import com.uriio.beacons.Util;
 
@@ -23,11 +27,61 @@ public class AdvertisersManager {
 
     private static final String TAG = "AdvertisersManager";
 
+    /** Default time an advertiser keeps a hardware slot while others wait, in milliseconds */
+    public static final long DEFAULT_DWELL_TIME = 3000;
+
+    /** Default number of advertiser starts sent to the Bluetooth stack before their outcome is known */
+    public static final int DEFAULT_MAX_STARTS_IN_FLIGHT = 2;
+
+    /** Time after which a start without outcome no longer holds back the queue, in milliseconds */
+    private static final long START_TIMEOUT = 2000;
+
+    /** Delay before retrying a rotation start that found its slot not yet freed, in milliseconds */
+    private static final long ROTATION_RETRY_DELAY = 100;
+
     private BluetoothLeAdvertiser mBleAdvertiser = null;
     private List<Advertiser> mAdvertisers = new ArrayList<>();
     private final BluetoothAdapter mBluetoothAdapter;
     private Listener mListener;
 
+    /** Advertisers sharing the hardware slots, once more were started than the chip supports */
+    private final SlotScheduler<Advertiser> mScheduler = new SlotScheduler<>(DEFAULT_DWELL_TIME);
+    /** Advertisers that started at least once; later starts are slot rotations, not reported */
+    private final List<Advertiser> mAnnounced = new ArrayList<>();
+
+    /** Starts waiting for the Bluetooth stack, and starts it didn't answer yet */
+    private final List<Advertiser> mStartQueue = new ArrayList<>();
+    private final List<Advertiser> mStartsInFlight = new ArrayList<>();
+    /** Advertisers stopped while their start was in flight; stopped again if the start succeeds */
+    private final List<Advertiser> mStopAfterStart = new ArrayList<>();
+    /** Advertisers started by a rotation right after stopping another; the stack may not have freed its slot yet */
+    private final List<Advertiser> mRotationStarts = new ArrayList<>();
+    private int mMaxStartsInFlight = DEFAULT_MAX_STARTS_IN_FLIGHT;
+
+    /** Adapter name as of the current local name group, so unchanged names cost no IPC */
+    private String mAdapterName = null;
+    /** Adapter name to restore once no start needs a local name, or once Bluetooth is back on */
+    private String mOriginalAdapterName = null;
+    /** Local name applied to the adapter for the starts in flight, or null */
+    private String mAppliedLocalName = null;
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final Runnable mRotation = new Runnable() {
+        @Override
+        public void run() {
+            rotateSlots();
+        }
+    };
+    private final Runnable mFillFreeSlots = new Runnable() {
+        @Override
+        public void run() {
+            fillFreeSlots();
+        }
+    };
+
+    /** Free space signal loss between 0 and 1 meter, in dB */
+    public static final int ONE_METER_PATH_LOSS = 41;
+
     /** Received TX power at 0 meters, for each TX power level **/
     private static final byte[] _advertisedTxPowers = new byte[] {
             -59, -35, -26, -16
@@ -61,26 +115,214 @@ public class AdvertisersManager {
             }
         }
 
-        // temporarily change local device name if it will be used in BLE payload
-        String oldAdapterName = null;
-        String tempLocalName = advertiser.getAdvertisedLocalName();
-        if (null != tempLocalName) {
-            oldAdapterName = mBluetoothAdapter.getName();
-            if (tempLocalName.equals(oldAdapterName)) {
-                // same name already, don't change it
-                tempLocalName = null;
+        if (!mScheduler.hasFreeSlot()) {
+            // all hardware slots are taken; wait for a rotation
+            mScheduler.add(advertiser, advertiser.getSchedulingWeight());
+            scheduleRotation();
+            return true;
+        }
+
+        mScheduler.add(advertiser, advertiser.getSchedulingWeight());
+        mScheduler.onRunning(advertiser, SystemClock.elapsedRealtime());
+        if (!startRadio(advertiser)) {
+            mScheduler.remove(advertiser);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Stops an advertiser and starts its replacement, e.g. with refreshed data. If the old start
+     * was still queued, the new advertiser takes its place in the queue and the stack sees a single start.
+     * @return True if no error occurred, see {@link #startAdvertiser(Advertiser)}
+     */
+    public boolean restartAdvertiser(Advertiser oldAdvertiser, Advertiser advertiser) {
+        int queueIndex = mStartQueue.indexOf(oldAdvertiser);
+        boolean hadSlot = mScheduler.isRunning(oldAdvertiser);
+
+        // keep the old advertiser's slot for its replacement
+        detachAdvertiser(oldAdvertiser);
+
+        if (queueIndex >= 0 && hadSlot && null != mBleAdvertiser) {
+            mScheduler.add(advertiser, advertiser.getSchedulingWeight());
+            mScheduler.onRunning(advertiser, SystemClock.elapsedRealtime());
+            return queueStart(advertiser, queueIndex);
+        }
+
+        return startAdvertiser(advertiser);
+    }
+
+    /**
+     * @return True if the advertiser can be restarted as is, with a rewritten payload. False while
+     * its start is in flight, since the stack identifies advertisements by their callback.
+     */
+    public boolean canRecycle(Advertiser advertiser) {
+        return !mStartsInFlight.contains(advertiser) && !mStopAfterStart.contains(advertiser);
+    }
+
+    /**
+     * Sets how many advertiser starts may wait for the Bluetooth stack's answer at once. Starts
+     * beyond that are queued, since many stacks fail when flooded with starts.
+     */
+    public void setMaxStartsInFlight(int maxStartsInFlight) {
+        mMaxStartsInFlight = Math.max(1, maxStartsInFlight);
+        processStartQueue();
+    }
+
+    private boolean startRadio(Advertiser advertiser) {
+        return queueStart(advertiser, mStartQueue.size());
+    }
+
+    private boolean queueStart(final Advertiser advertiser, int queueIndex) {
+        if (!advertiser.fitsPDU()) {
+            // the stack would reject it anyway, after we had changed the adapter name;
+            // fail later like the stack does, so callers see the same order of events
+            mHandler.postAtTime(new Runnable() {
+                @Override
+                public void run() {
+                    // unless it was stopped meanwhile
+                    if (mScheduler.contains(advertiser)) {
+                        advertiser.onStartFailure(AdvertiseCallback.ADVERTISE_FAILED_DATA_TOO_LARGE);
+                    }
+                }
+            }, advertiser, SystemClock.uptimeMillis());
+            return true;
+        }
+
+        if (mStartsInFlight.size() >= mMaxStartsInFlight || !canUseLocalName(advertiser)) {
+            mStartQueue.add(queueIndex, advertiser);
+            return true;
+        }
+
+        return dispatchStart(advertiser);
+    }
+
+    private void processStartQueue() {
+        while (mStartsInFlight.size() < mMaxStartsInFlight) {
+            Advertiser advertiser = pollStartQueue();
+            if (null == advertiser) break;
+
+            if (!dispatchStart(advertiser)) {
+                // give up its slot, like a failed direct start
+                mScheduler.remove(advertiser);
             }
-            if (null != tempLocalName) {
-                // changes the name at OS level!
-                mBluetoothAdapter.setName(tempLocalName);
+        }
+    }
+
+    /**
+     * While a local name is applied, queued advertisers using the same name (or none) go first,
+     * so a group of them is started under a single adapter rename.
+     * @return The next advertiser that can start now, or null.
+     */
+    private Advertiser pollStartQueue() {
+        for (int i = 0; i < mStartQueue.size(); i++) {
+            if (canUseLocalName(mStartQueue.get(i))) {
+                return mStartQueue.remove(i);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return False if the advertiser needs another local name than the one applied for the
+     * starts in flight.
+     */
+    private boolean canUseLocalName(Advertiser advertiser) {
+        if (null == mAppliedLocalName) return true;
+
+        String localName = advertiser.getAdvertisedLocalName();
+        return null == localName || localName.equals(mAppliedLocalName);
+    }
+
+    private void onStartCompleted(Advertiser advertiser) {
+        if (mStartsInFlight.remove(advertiser)) {
+            mHandler.removeCallbacksAndMessages(advertiser);
+            releaseLocalName();
+            processStartQueue();
+        }
+    }
+
+    /**
+     * Renames the adapter, unless it already has the name.
+     */
+    private void applyLocalName(String localName) {
+        if (null == mAppliedLocalName) {
+            // read the name once per group; the user may have renamed the device since the last one
+            mAdapterName = mBluetoothAdapter.getName();
+            if (null == mOriginalAdapterName) {
+                // else a failed restore is pending, and the adapter still has a local name
+                mOriginalAdapterName = mAdapterName;
+            }
+            mAppliedLocalName = localName;
+        }
+
+        if (!localName.equals(mAdapterName)) {
+            // changes the name at OS level!
+            mBluetoothAdapter.setName(localName);
+            mAdapterName = localName;
+        }
+    }
+
+    /**
+     * Restores the adapter name, once no start in flight needs the applied local name.
+     */
+    private void releaseLocalName() {
+        if (null == mAppliedLocalName) return;
+
+        for (Advertiser advertiser : mStartsInFlight) {
+            if (null != advertiser.getAdvertisedLocalName()) return;
+        }
+
+        mAppliedLocalName = null;
+        restoreAdapterName();
+    }
+
+    /**
+     * Sets the original adapter name back. If the adapter refuses, e.g. while turning off, the name
+     * is kept for another attempt when Bluetooth is on again.
+     */
+    private void restoreAdapterName() {
+        if (null == mOriginalAdapterName) return;
+
+        if (!mOriginalAdapterName.equals(mAdapterName)) {
+            if (!mBluetoothAdapter.setName(mOriginalAdapterName)) return;
+            mAdapterName = mOriginalAdapterName;
+        }
+        mOriginalAdapterName = null;
+    }
+
+    public void onBluetoothOn() {
+        // the stack was restarted, so slots held by other apps may be free now
+        mScheduler.resetLimit();
+
+        if (null == mAppliedLocalName) {
+            restoreAdapterName();
+        }
+    }
+
+    private boolean dispatchStart(final Advertiser advertiser) {
+        // count it in flight first, in case the stack answers right away
+        mStartsInFlight.add(advertiser);
+        mHandler.postAtTime(new Runnable() {
+            @Override
+            public void run() {
+                onStartCompleted(advertiser);
             }
+        }, advertiser, SystemClock.uptimeMillis() + START_TIMEOUT);
+
+        // temporarily change local device name if it will be used in BLE payload;
+        // it's changed back once no start in flight needs it
+        String localName = advertiser.getAdvertisedLocalName();
+        if (null != localName) {
+            applyLocalName(localName);
         }
 
         boolean success = advertiser.start(mBleAdvertiser);
 
-        // change adapter name back
-        if (null != tempLocalName) {
-            mBluetoothAdapter.setName(oldAdapterName);
+        if (!success) {
+            mStartsInFlight.remove(advertiser);
+            mHandler.removeCallbacksAndMessages(advertiser);
+            releaseLocalName();
         }
 
         return success;
@@ -98,6 +340,16 @@ public class AdvertisersManager {
             advertiser.stop(mBleAdvertiser);
         }
         mAdvertisers.clear();
+
+        // drops the rotation and the start timeouts
+        mHandler.removeCallbacksAndMessages(null);
+        mScheduler.clear();
+        mAnnounced.clear();
+        mStartQueue.clear();
+        mStartsInFlight.clear();
+        mStopAfterStart.clear();
+        mRotationStarts.clear();
+        releaseLocalName();
     }
 
     public void close() {
@@ -109,18 +361,164 @@ public class AdvertisersManager {
     }
 
     void onAdvertiserStarted(Advertiser advertiser) {
+        onStartCompleted(advertiser);
+        mRotationStarts.remove(advertiser);
+
+        if (mStopAfterStart.remove(advertiser)) {
+            // stopped while starting; make sure it doesn't keep advertising
+            advertiser.stop(mBleAdvertiser);
+            return;
+        }
+
         mAdvertisers.add(advertiser);
-        mListener.onAdvertiserStarted(advertiser);
+
+        if (!mAnnounced.contains(advertiser)) {
+            mAnnounced.add(advertiser);
+            mListener.onAdvertiserStarted(advertiser);
+        }
     }
 
     void onAdvertiserFailed(Advertiser advertiser, int errorCode) {
+        onStartCompleted(advertiser);
+        boolean rotationStart = mRotationStarts.remove(advertiser);
+        if (mStopAfterStart.remove(advertiser)) return;
+
         mAdvertisers.remove(advertiser);
+
+        if (AdvertiseCallback.ADVERTISE_FAILED_TOO_MANY_ADVERTISERS == errorCode
+                && mScheduler.contains(advertiser)) {
+            mScheduler.onWaiting(advertiser);
+            if (rotationStart) {
+                // the stop it was paired with may still be pending, so this says nothing about the limit
+                mHandler.removeCallbacks(mFillFreeSlots);
+                mHandler.postDelayed(mFillFreeSlots, ROTATION_RETRY_DELAY);
+                return;
+            }
+            if (mScheduler.onTooManyAdvertisers()) {
+                // now we know how many slots the chip has; wait for one to free up
+                scheduleRotation();
+                return;
+            }
+        }
+
+        mScheduler.remove(advertiser);
+        mAnnounced.remove(advertiser);
         mListener.onAdvertiserFailed(advertiser, errorCode);
     }
 
     public void stopAdvertiser(Advertiser advertiser) {
-        advertiser.stop(mBleAdvertiser);
+        if (detachAdvertiser(advertiser)) {
+            fillFreeSlots();
+        }
+    }
+
+    /**
+     * Stops an advertiser without giving its slot to another one.
+     * @return True if the advertiser had a slot or was waiting for one.
+     */
+    private boolean detachAdvertiser(Advertiser advertiser) {
+        if (!isWaiting(advertiser)) {
+            stopRadio(advertiser);
+        }
+        mAnnounced.remove(advertiser);
+
+        boolean scheduled = mScheduler.contains(advertiser);
+        mScheduler.remove(advertiser);
+        return scheduled;
+    }
+
+    private void stopRadio(Advertiser advertiser) {
+        if (mStartQueue.remove(advertiser)) {
+            // never reached the Bluetooth stack
+            advertiser.stop(null);
+        } else {
+            advertiser.stop(mBleAdvertiser);
+            if (mStartsInFlight.contains(advertiser) && !mStopAfterStart.contains(advertiser)) {
+                mStopAfterStart.add(advertiser);
+            }
+        }
         mAdvertisers.remove(advertiser);
+        mRotationStarts.remove(advertiser);
+    }
+
+    /**
+     * Sets how long an advertiser keeps a hardware slot when there are more advertisers than
+     * slots. Each one then gets slots in proportion to its scheduling weight.
+     * @param dwellTime    Dwell time, in milliseconds; at least 1
+     */
+    public void setDwellTime(long dwellTime) {
+        mScheduler.setDwellTime(dwellTime);
+        scheduleRotation();
+    }
+
+    /**
+     * @return Number of concurrent advertisers supported by the chip, as learned so far,
+     * or Integer.MAX_VALUE if the limit was not reached yet.
+     */
+    public int getHardwareSlots() {
+        return mScheduler.getLimit();
+    }
+
+    /**
+     * @return True if the advertiser is advertising, waiting for a hardware slot, or has a start
+     * queued or in flight; that is, if it needs {@link #stopAdvertiser(Advertiser)}.
+     */
+    public boolean isActive(Advertiser advertiser) {
+        return mScheduler.contains(advertiser) || mAdvertisers.contains(advertiser)
+                || mStartQueue.contains(advertiser) || mStartsInFlight.contains(advertiser);
+    }
+
+    /**
+     * @return True if the advertiser was started but is waiting for its turn on a hardware slot.
+     */
+    public boolean isWaiting(Advertiser advertiser) {
+        return mScheduler.contains(advertiser) && !mScheduler.isRunning(advertiser);
+    }
+
+    /**
+     * @return Number of started advertisers waiting for a hardware slot.
+     */
+    public int getWaitingCount() {
+        return mScheduler.getWaitingCount();
+    }
+
+    private void rotateSlots() {
+        long now = SystemClock.elapsedRealtime();
+
+        Advertiser expired;
+        while (null != (expired = mScheduler.pickExpired(now))) {
+            // the expired advertiser competes for its slot too, and keeps it if it's still owed airtime
+            mScheduler.onWaiting(expired);
+            Advertiser next = mScheduler.pickNext();
+            mScheduler.onRunning(next, now);
+
+            if (next != expired) {
+                stopRadio(expired);
+                mRotationStarts.add(next);
+                startRadio(next);
+            }
+        }
+
+        fillFreeSlots();
+        scheduleRotation();
+    }
+
+    private void fillFreeSlots() {
+        long now = SystemClock.elapsedRealtime();
+        while (null != mBleAdvertiser && mScheduler.hasFreeSlot() && mScheduler.getWaitingCount() > 0) {
+            Advertiser next = mScheduler.pickNext();
+            mScheduler.onRunning(next, now);
+            startRadio(next);
+        }
+    }
+
+    private void scheduleRotation() {
+        mHandler.removeCallbacks(mRotation);
+
+        long rotationTime = mScheduler.getNextRotationTime();
+        if (rotationTime >= 0) {
+            mHandler.postDelayed(mRotation, Math.max(0, rotationTime - SystemClock.elapsedRealtime()));
+        }
     }
 
     public boolean isBluetoothEnabled() {
@@ -153,6 +551,13 @@ public class AdvertisersManager {
         return _advertisedTxPowers[powerLevel];
     }
 
+    /**
+     * @return Expected RSSI at 1 meter for a TX power level, as advertised by iBeacons.
+     */
+    public static byte getOneMeterTxPower(int powerLevel) {
+        return (byte) (_advertisedTxPowers[powerLevel] - ONE_METER_PATH_LOSS);
+    }
+
     public static byte[] getSupportedRadioTxPowers() {
         return _radioTxPowers;
     }
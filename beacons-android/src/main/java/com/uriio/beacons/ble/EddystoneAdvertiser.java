@@ -7,22 +7,31 @@ import android.os.ParcelUuid;
 
 import com.uriio.beacons.ble.gatt.EddystoneGattService;
 
+import java.util.Arrays;
+
 /**
 * Advertise as an Eddystone beacon
 */
 @TargetApi(Build.VERSION_CODES.LOLLIPOP)
 public class EddystoneAdvertiser extends Advertiser {
-    // 16-bit 0xFEAA expanded to a BLE 128-bit UUID
-    private static final ParcelUuid EDDYSTONE_SERVICE_UUID = parcelUuidFromShortUUID(0xFEAA);
+    /** Eddystone 16-bit service UUID */
+    public static final int EDDYSTONE_SERVICE_ID = 0xFEAA;
 
     public static final byte FRAME_UID = 0x00;
     public static final byte FRAME_URL = 0x10;
     public static final byte FRAME_TLM = 0x20;
     public static final byte FRAME_EID = 0x30;
 
-    private final AdvertiseData mAdvertiseData;
+    /** Largest service data: frame type, TX power and an 18-byte encoded URL */
+    private static final int MAX_SERVICE_DATA_SIZE = 20;
+
+    private AdvertiseData mAdvertiseData;
     private AdvertiseData mAdvertiseScanResponse = null;
-    private final byte[] mServiceData;
+    private final byte[] mServiceData = new byte[MAX_SERVICE_DATA_SIZE];
+    private int mServiceDataLength;
+
+    /** Scan response of connectable beacons, the same for all of them */
+    private static AdvertiseData _gattScanResponse = null;
 
     /**
      * Creates an Eddystone BLE advertiser. It does not start any actual transmission.
@@ -35,28 +44,44 @@ public class EddystoneAdvertiser extends Advertiser {
     {
         super(provider);
 
-        mServiceData = new byte[2 + len];
-
         mServiceData[0] = frameType;
         mServiceData[1] = FRAME_TLM == frameType ? 0
                 : AdvertisersManager.getZeroDistanceTxPower(provider.getTxPowerLevel());
+        setFrameData(frameData, pos, len);
+
+        if (provider.isConnectable()) {
+            mAdvertiseScanResponse = getGattScanResponse();
+        }
+    }
+
+    /**
+     * Rewrites the frame data in place, keeping the frame type and TX power. The advertiser must
+     * be restarted for the new data to be broadcast.
+     * @param frameData    Frame data (without service data frame type or TX power bytes)
+     * @param pos          Frame data offset
+     * @param len          Frame data size
+     */
+    public void setFrameData(byte[] frameData, int pos, int len) {
+        if (len > MAX_SERVICE_DATA_SIZE - 2) {
+            throw new IllegalArgumentException("Frame data too large: " + len);
+        }
+
         System.arraycopy(frameData, pos, mServiceData, 2, len);
+        mServiceDataLength = 2 + len;
 
         // an advertisement packet can have at most 31 bytes
-        mAdvertiseData = new AdvertiseData.Builder()
-                .setIncludeDeviceName(false)
-                .setIncludeTxPowerLevel(false)
-                .addServiceData(EDDYSTONE_SERVICE_UUID, mServiceData)
-                .addServiceUuid(EDDYSTONE_SERVICE_UUID)
-                .build();
+        mAdvertiseData = AdvertiseCache.getServiceData(EDDYSTONE_SERVICE_ID, mServiceData, mServiceDataLength);
+    }
 
-        if (provider.isConnectable()) {
-            mAdvertiseScanResponse = new AdvertiseData.Builder()
+    private static synchronized AdvertiseData getGattScanResponse() {
+        if (null == _gattScanResponse) {
+            _gattScanResponse = new AdvertiseData.Builder()
                     .setIncludeDeviceName(true)
                     .setIncludeTxPowerLevel(false)  // allows 3 more bytes for device name
                     .addServiceUuid(new ParcelUuid(EddystoneGattService.UUID_EDDYSTONE_GATT_SERVICE))
                     .build();
         }
+        return _gattScanResponse;
     }
 
     @Override
@@ -73,14 +98,16 @@ public class EddystoneAdvertiser extends Advertiser {
     public String getAdvertisedLocalName() {
         if (null != mAdvertiseScanResponse && mAdvertiseScanResponse.getIncludeDeviceName()) {
             // fix device name so it fits into the scan record
-            int maxNameLen = 8 + 3;  // we've got 3 bytes more if TX is not advertised
-            return Build.MODEL.length() <= maxNameLen ? Build.MODEL : Build.MODEL.substring(0, maxNameLen);
+            return AdvertisePDU.fitLocalName(mAdvertiseScanResponse, false, Build.MODEL);
         }
 
         return null;
     }
 
+    /**
+     * @return A copy of the service data: frame type, TX power and frame data.
+     */
     public byte[] getServiceData() {
-        return mServiceData;
+        return Arrays.copyOf(mServiceData, mServiceDataLength);
     }
 }
\ No newline at end of file
@@ -39,7 +39,15 @@ public class GenericAdvertiser extends Advertiser {
     public String getAdvertisedLocalName() {
         if (null != mAdvertiseData && mAdvertiseData.getIncludeDeviceName()
                 || null != mAdvertiseScanResponse && mAdvertiseScanResponse.getIncludeDeviceName()) {
-            return null == mAdvertiseName ? Build.MODEL : mAdvertiseName;
+            String name = null == mAdvertiseName ? Build.MODEL : mAdvertiseName;
+
+            // shorten the name to fit both PDUs; if nothing fits, the start will be rejected
+            String fitName = AdvertisePDU.fitLocalName(mAdvertiseData,
+                    getAdvertiseSettings().isConnectable(), name);
+            if (null != fitName) {
+                fitName = AdvertisePDU.fitLocalName(mAdvertiseScanResponse, false, fitName);
+            }
+            return null == fitName ? name : fitName;
         }
 
         return null;
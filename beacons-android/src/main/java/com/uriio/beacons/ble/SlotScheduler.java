@@ -0,0 +1,209 @@
+package com.uriio.beacons.ble;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Time-multiplexes logical advertisers over a limited number of hardware advertising slots.
+ * The slot limit is learned from start failures, and forgotten once no advertiser is left. While there are more advertisers than slots,
+ * each running one keeps its slot for a dwell time, then yields it to a waiting one picked by
+ * smooth weighted round-robin, so each advertiser gets airtime proportional to its weight.
+ * This class only does the bookkeeping; the caller starts and stops the actual advertisers.
+ */
+class SlotScheduler<T> {
+    static final int UNKNOWN_LIMIT = Integer.MAX_VALUE;
+
+    private static class Entry<T> {
+        final T item;
+        int weight;
+        /** Smooth weighted round-robin credit */
+        int credit = 0;
+        boolean running = false;
+        long startTime;
+
+        Entry(T item, int weight) {
+            this.item = item;
+            this.weight = weight;
+        }
+    }
+
+    private final List<Entry<T>> mEntries = new ArrayList<>();
+    private int mLimit = UNKNOWN_LIMIT;
+    private long mDwellTime;
+    private int mRunningCount = 0;
+
+    SlotScheduler(long dwellTime) {
+        setDwellTime(dwellTime);
+    }
+
+    /**
+     * @param dwellTime    Dwell time, at least 1; with none, a rotation would never end since the
+     *                     advertiser just given a slot would already be expired.
+     */
+    void setDwellTime(long dwellTime) {
+        mDwellTime = Math.max(1, dwellTime);
+    }
+
+    long getDwellTime() {
+        return mDwellTime;
+    }
+
+    /**
+     * @return Learned number of hardware slots, or {@link #UNKNOWN_LIMIT}.
+     */
+    int getLimit() {
+        return mLimit;
+    }
+
+    void setLimit(int limit) {
+        mLimit = Math.max(1, limit);
+    }
+
+    /**
+     * Forgets the learned slot limit, e.g. because another app or a slow stop held a slot when it
+     * was learned. The next start failures learn it again.
+     */
+    void resetLimit() {
+        mLimit = UNKNOWN_LIMIT;
+    }
+
+    /**
+     * Learns the slot limit from a start failure because of too many advertisers.
+     * @return True if at least one slot is known to exist, so the advertiser can wait for it.
+     */
+    boolean onTooManyAdvertisers() {
+        if (0 == mRunningCount) return false;
+
+        mLimit = mRunningCount;
+        return true;
+    }
+
+    int getRunningCount() {
+        return mRunningCount;
+    }
+
+    int getWaitingCount() {
+        return mEntries.size() - mRunningCount;
+    }
+
+    boolean hasFreeSlot() {
+        return mRunningCount < mLimit;
+    }
+
+    boolean contains(T item) {
+        return null != find(item);
+    }
+
+    boolean isRunning(T item) {
+        Entry<T> entry = find(item);
+        return null != entry && entry.running;
+    }
+
+    /**
+     * Registers an advertiser as waiting for a slot.
+     */
+    void add(T item, int weight) {
+        Entry<T> entry = find(item);
+        if (null == entry) {
+            mEntries.add(new Entry<>(item, Math.max(1, weight)));
+        } else {
+            entry.weight = Math.max(1, weight);
+        }
+    }
+
+    void remove(T item) {
+        for (int i = 0; i < mEntries.size(); i++) {
+            Entry<T> entry = mEntries.get(i);
+            if (entry.item == item) {
+                if (entry.running) mRunningCount--;
+                mEntries.remove(i);
+                if (mEntries.isEmpty()) resetLimit();
+                return;
+            }
+        }
+    }
+
+    void clear() {
+        mEntries.clear();
+        mRunningCount = 0;
+        resetLimit();
+    }
+
+    void onRunning(T item, long now) {
+        Entry<T> entry = find(item);
+        if (null != entry && !entry.running) {
+            entry.running = true;
+            entry.startTime = now;
+            mRunningCount++;
+        }
+    }
+
+    void onWaiting(T item) {
+        Entry<T> entry = find(item);
+        if (null != entry && entry.running) {
+            entry.running = false;
+            mRunningCount--;
+        }
+    }
+
+    /**
+     * Picks the waiting advertiser that should get the next free slot.
+     * @return The advertiser, or null if none is waiting.
+     */
+    T pickNext() {
+        Entry<T> best = null;
+        int totalWeight = 0;
+        for (Entry<T> entry : mEntries) {
+            if (entry.running) continue;
+
+            entry.credit += entry.weight;
+            totalWeight += entry.weight;
+            if (null == best || entry.credit > best.credit) {
+                best = entry;
+            }
+        }
+
+        if (null == best) return null;
+
+        best.credit -= totalWeight;
+        return best.item;
+    }
+
+    /**
+     * @return The running advertiser that has used its slot the longest, if its dwell time is
+     * over and another advertiser is waiting; else null.
+     */
+    T pickExpired(long now) {
+        if (0 == getWaitingCount()) return null;
+
+        Entry<T> oldest = findOldestRunning();
+        return null != oldest && now - oldest.startTime >= mDwellTime ? oldest.item : null;
+    }
+
+    /**
+     * @return When the next rotation is due, or -1 if no rotation is needed.
+     */
+    long getNextRotationTime() {
+        if (0 == getWaitingCount()) return -1;
+
+        Entry<T> oldest = findOldestRunning();
+        return null == oldest ? -1 : oldest.startTime + mDwellTime;
+    }
+
+    private Entry<T> findOldestRunning() {
+        Entry<T> oldest = null;
+        for (Entry<T> entry : mEntries) {
+            if (entry.running && (null == oldest || entry.startTime < oldest.startTime)) {
+                oldest = entry;
+            }
+        }
+        return oldest;
+    }
+
+    private Entry<T> find(T item) {
+        for (Entry<T> entry : mEntries) {
+            if (entry.item == item) return entry;
+        }
+        return null;
+    }
+}
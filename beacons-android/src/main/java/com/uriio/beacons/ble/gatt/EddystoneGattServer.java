@@ -140,6 +140,9 @@ public class EddystoneGattServer extends BluetoothGattServerCallback {
 
         // if BT was off when we tried to start, the configurator is null
         if (null != mBeacon && null != mEddystoneConfigurator) {
+            // an EID slot write may still be computing its identity key
+            mEddystoneGattService.applyPendingEID();
+
             EddystoneBase configuredBeacon = mEddystoneConfigurator.getConfiguredBeacon();
 
             if (mBeacon == configuredBeacon) {
@@ -1,33 +1,35 @@
 package com.uriio.beacons.ble.gatt;
 
-import android.annotation.SuppressLint;
 import android.bluetooth.BluetoothDevice;
 import android.bluetooth.BluetoothGatt;
 import android.bluetooth.BluetoothGattCharacteristic;
 import android.bluetooth.BluetoothGattServer;
 import android.bluetooth.BluetoothGattService;
 import android.os.Build;
+import android.support.annotation.NonNull;
 import android.support.annotation.RequiresApi;
 
 import com.uriio.beacons.Util;
 import com.uriio.beacons.ble.EddystoneAdvertiser;
+import com.uriio.beacons.crypto.AES128;
+import com.uriio.beacons.crypto.CryptoProviders;
 import com.uriio.beacons.eid.EIDUtils;
+import com.uriio.beacons.eid.KeyPairPool;
 import com.uriio.beacons.model.EddystoneURL;
 
-import org.whispersystems.curve25519.Curve25519;
 import org.whispersystems.curve25519.Curve25519KeyPair;
 
 import java.nio.ByteBuffer;
-import java.security.GeneralSecurityException;
-import java.security.InvalidKeyException;
-import java.security.NoSuchAlgorithmException;
-import java.security.SecureRandom;
 import java.util.Arrays;
 import java.util.Locale;
 import java.util.UUID;
-
-import javax.crypto.Cipher;
-import javax.crypto.spec.SecretKeySpec;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Eddystone GATT Service
@@ -55,6 +57,9 @@ public class EddystoneGattService {
     private static final byte LOCK_STATE_LOCKED = 0x00;
     private static final byte LOCK_STATE_UNLOCKED = 0x01;
 
+    /** Runs identity key derivations for EID slot writes */
+    private static ExecutorService _executor = null;
+
     private final BluetoothGattService mService;
     private final BluetoothGattCharacteristic mCapabilitiesCharacteristic;
 
@@ -71,9 +76,15 @@ public class EddystoneGattService {
     private final BluetoothGattCharacteristic mRemainConnectableCharacteristic;
 
     private byte[] mLockKey;
+    /** Lock key with expanded round keys, created on first use */
+    private AES128 mLockCipher = null;
     private EddystoneGattServer mGattServer;
     private EddystoneGattConfigCallback mConfigCallback;
     private Curve25519KeyPair mEidKeyPair;
+    /** Identity key derivation of the last EID slot write; binder threads may race for it */
+    private final AtomicReference<PendingEID> mPendingEID = new AtomicReference<>();
+    /** Set when the identity key of the last EID slot write could not be derived */
+    private volatile boolean mEidFailed = false;
     private BluetoothDevice mOwnerDevice = null;
 
     public EddystoneGattService(EddystoneGattServer eddystoneGattServer,
@@ -85,6 +96,9 @@ public class EddystoneGattService {
 
         mLockKey = mConfigCallback.getLockKey();
 
+        // have a key pair ready by the time a client writes an EID slot
+        KeyPairPool.getShared().prefill();
+
         mCapabilitiesCharacteristic = new BluetoothGattCharacteristic(
                 UUID_CAPABILITIES_CHARACTERISTIC,
                 BluetoothGattCharacteristic.PROPERTY_READ,
@@ -205,7 +219,7 @@ public class EddystoneGattService {
             if (characteristic == mUnlockCharacteristic) {
                 log("Generating secure unlock challenge");
                 characteristic.setValue(new byte[16]);
-                new SecureRandom().nextBytes(characteristic.getValue());
+                CryptoProviders.getSecureRandom().nextBytes(characteristic.getValue());
             } else {
                 if (characteristic != mLockStateCharacteristic) {
                     status = BluetoothGatt.GATT_READ_NOT_PERMITTED;
@@ -221,10 +235,17 @@ public class EddystoneGattService {
             }
         } else if (characteristic == mAdvSlotDataCharacteristic) {
             log("Advertisement slot data requested");
-            characteristic.setValue(mConfigCallback.getAdvertisedData());
+            applyPendingEID();
+            if (mEidFailed) {
+                status = BluetoothGatt.GATT_FAILURE;
+            }
+            else {
+                characteristic.setValue(mConfigCallback.getAdvertisedData());
+            }
         } else if (characteristic  == mEidIdentityKeyCharacteristic) {
             log("Identity Key was requested");
-            byte[] identityKey = mConfigCallback.getEidIdentityKey();
+            applyPendingEID();
+            byte[] identityKey = mEidFailed ? null : mConfigCallback.getEidIdentityKey();
             if (null == identityKey) {
                 status = BluetoothGatt.GATT_FAILURE;
             }
@@ -273,6 +294,7 @@ public class EddystoneGattService {
         if (characteristic == mLockStateCharacteristic) {
             if (LOCK_STATE_LOCKED == value[0] && 17 == value.length) {
                 mLockKey = aes_transform(false, value, 1, 16);
+                mLockCipher = null;
                 mConfigCallback.setLockKey(mLockKey);
                 log("Lock key changed");
             }
@@ -319,6 +341,9 @@ public class EddystoneGattService {
     }
 
     private int handleWriteAdvertiseSlotData(byte[] value) {
+        // any new slot data replaces an EID configuration still computing or failed
+        cancelPendingEID();
+
         switch (value[0]) {     // the frame type
             case EddystoneAdvertiser.FRAME_UID:
                 if (value.length == 1) {
@@ -342,27 +367,24 @@ public class EddystoneGattService {
                 break;
             case EddystoneAdvertiser.FRAME_EID:
                 if (value.length == 34) {
-                    byte[] serverPublicKey = Arrays.copyOfRange(value, 1, 33);
+                    final byte[] serverPublicKey = Arrays.copyOfRange(value, 1, 33);
                     byte rotationExponent = value[33];
                     log(String.format(Locale.US, "Computing Identity Key with rotation exponent %d and server PublicKey %s",
                             rotationExponent, Util.binToHex(serverPublicKey)));
 
-                    log("Generating ECDH Private Key");
-                    mEidKeyPair = Curve25519.getInstance(Curve25519.BEST).generateKeyPair();
-
-                    byte[] sharedSecret = EIDUtils.computeSharedSecret(serverPublicKey, mEidKeyPair.getPrivateKey());
-
-                    byte[] identityKey;
-                    try {
-                        identityKey = EIDUtils.computeIdentityKey(sharedSecret, serverPublicKey, mEidKeyPair.getPublicKey());
-                    } catch (InvalidKeyException e) {
-                        return BluetoothGatt.GATT_FAILURE;
-                    } catch (NoSuchAlgorithmException e) {
-                        return BluetoothGatt.GATT_FAILURE;
-                    }
-
-//                        Util.log(TAG, "IK: " + Util.binToHex(identityKey));
-                    mConfigCallback.advertiseEID(identityKey, rotationExponent);
+                    // the key pair comes pre-generated, so its public key can be read right away
+                    final Curve25519KeyPair keyPair = KeyPairPool.getShared().take();
+                    mEidKeyPair = keyPair;
+
+                    // don't hold the binder thread; the identity key is applied once the configured beacon is used
+                    Future<byte[]> identityKey = getExecutor().submit(new Callable<byte[]>() {
+                        @Override
+                        public byte[] call() throws Exception {
+                            byte[] sharedSecret = EIDUtils.computeSharedSecret(serverPublicKey, keyPair.getPrivateKey());
+                            return EIDUtils.computeIdentityKey(sharedSecret, serverPublicKey, keyPair.getPublicKey());
+                        }
+                    });
+                    cancel(mPendingEID.getAndSet(new PendingEID(identityKey, rotationExponent)));
                 }
                 else if (value.length == 18) {
                     log("WARNING!!! Received direct IdentityKey. Rotation exponent is " + value[17]);
@@ -375,24 +397,87 @@ public class EddystoneGattService {
         return BluetoothGatt.GATT_SUCCESS;
     }
 
+    /**
+     * Applies the identity key of the last EID slot write, waiting for its derivation if needed.
+     * Only called where the configured beacon is read, so other requests never wait for it.
+     * If the derivation failed, slot data and identity key reads fail until the slot is written again.
+     */
+    public void applyPendingEID() {
+        PendingEID pending = mPendingEID.getAndSet(null);
+        if (null == pending) return;
+
+        byte[] identityKey;
+        try {
+            identityKey = pending.identityKey.get();
+        } catch (InterruptedException e) {
+            // put it back for the next request, unless a newer slot write replaced it
+            if (!mPendingEID.compareAndSet(null, pending)) {
+                cancel(pending);
+            }
+            Thread.currentThread().interrupt();
+            return;
+        } catch (ExecutionException e) {
+            log("Identity Key computation failed: " + e.getCause());
+            mEidFailed = true;
+            return;
+        }
+
+//        Util.log(TAG, "IK: " + Util.binToHex(identityKey));
+        mConfigCallback.advertiseEID(identityKey, pending.rotationExponent);
+    }
+
+    private void cancelPendingEID() {
+        cancel(mPendingEID.getAndSet(null));
+        mEidFailed = false;
+    }
+
+    private static void cancel(PendingEID pending) {
+        if (null != pending) {
+            pending.identityKey.cancel(false);
+        }
+    }
+
+    private static synchronized ExecutorService getExecutor() {
+        if (null == _executor) {
+            _executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(@NonNull Runnable r) {
+                    Thread thread = new Thread(r, "EddystoneGattService");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return _executor;
+    }
+
     private void factoryReset() {
+        cancelPendingEID();
         mConfigCallback.stopAdvertise();
     }
 
     private byte[] aes_transform(boolean encrypt, byte[] src, int offset, int len) {
-        try {
-            @SuppressLint("GetInstance")
-            Cipher aes = Cipher.getInstance("AES/ECB/NoPadding");
-
-            aes.init(encrypt ? Cipher.ENCRYPT_MODE : Cipher.DECRYPT_MODE,
-                    new SecretKeySpec(mLockKey, 0, 16, "AES"));
-            return aes.doFinal(src, offset, len);
-        } catch (GeneralSecurityException e) {
+        if (null == src) {
             return null;
         }
+
+        if (null == mLockCipher) {
+            mLockCipher = new AES128(mLockKey, 0);
+        }
+
+        byte[] result = new byte[len];
+        for (int block = 0; block < len; block += 16) {
+            if (encrypt) {
+                mLockCipher.encrypt(src, offset + block, result, block);
+            } else {
+                mLockCipher.decrypt(src, offset + block, result, block);
+            }
+        }
+        return result;
     }
 
     public void onOwnerDisconnected() {
+        applyPendingEID();
         mOwnerDevice = null;
         setLockState(LOCK_STATE_LOCKED);
     }
@@ -404,4 +489,14 @@ public class EddystoneGattService {
     private void log(String message) {
         mGattServer.log(message);
     }
+
+    private static class PendingEID {
+        final Future<byte[]> identityKey;
+        final byte rotationExponent;
+
+        PendingEID(Future<byte[]> identityKey, byte rotationExponent) {
+            this.identityKey = identityKey;
+            this.rotationExponent = rotationExponent;
+        }
+    }
 }
\ No newline at end of file
@@ -12,19 +12,18 @@ public class iBeaconAdvertiser extends Advertiser {
     public static final int FLAG_APPLE = 0;
     public static final int FLAG_ALT_BEACON = 2;
 
-    private static final int COMPANY_ID_APPLE    = 0x004C;
+    public static final int COMPANY_ID_APPLE    = 0x004C;
 
     // iBeacon - 21 bytes of data follow
-    private static final int IBEACON_INDICATOR   = 0x0215;
-    private static final int ALTBEACON_INDICATOR = 0xBEAC;
+    public static final int IBEACON_INDICATOR   = 0x0215;
+    public static final int ALTBEACON_INDICATOR = 0xBEAC;
 
     private final AdvertiseData mAdvertiseData;
 
     public iBeaconAdvertiser(SettingsProvider provider, byte[] proximityUUID, int major, int minor, int flags) {
         super(provider);
 
-        byte measuredPower = AdvertisersManager.getZeroDistanceTxPower(provider.getTxPowerLevel());
-        measuredPower -= 41;
+        byte measuredPower = AdvertisersManager.getOneMeterTxPower(provider.getTxPowerLevel());
 
         int indicator = FLAG_APPLE == flags ? IBEACON_INDICATOR : ALTBEACON_INDICATOR;
 
@@ -50,11 +49,7 @@ public class iBeaconAdvertiser extends Advertiser {
         System.arraycopy(proximityUUID, 0, manufacturerData, 2, 16);
 
         // an advertisement packet can have at most 31 bytes; iBeacon uses 30
-        mAdvertiseData = new AdvertiseData.Builder()
-                .setIncludeTxPowerLevel(false)
-                .setIncludeDeviceName(false)
-                .addManufacturerData(COMPANY_ID_APPLE, manufacturerData)
-                .build();
+        mAdvertiseData = AdvertiseCache.getManufacturerData(COMPANY_ID_APPLE, manufacturerData);
     }
 
     @Override
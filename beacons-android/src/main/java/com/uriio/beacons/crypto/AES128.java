@@ -0,0 +1,201 @@
+package com.uriio.beacons.crypto;
+
+/**
+ * Single-block AES-128 (ECB) cipher with the expanded round keys of one key kept in the instance.
+ * Eddystone only needs a handful of 16-byte blocks per operation (EID computation, GATT lock and
+ * identity key transforms), so this avoids the JCE provider lookup and key scheduling per call,
+ * and never allocates after construction (except once for the decryption round keys).
+ * Blocks may be transformed in place, and instances can be shared between threads.
+ */
+public class AES128 {
+    private static final int ROUNDS = 10;
+
+    private static final byte[] SBOX = new byte[256];
+    private static final byte[] INV_SBOX = new byte[256];
+
+    // encryption and decryption round tables; the other three columns are byte rotations
+    private static final int[] TE = new int[256];
+    private static final int[] TD = new int[256];
+
+    private static final int[] RCON = {
+            0x01000000, 0x02000000, 0x04000000, 0x08000000, 0x10000000,
+            0x20000000, 0x40000000, 0x80000000, 0x1b000000, 0x36000000
+    };
+
+    static {
+        // generate the S-box by walking GF(2^8) with generator 3 and its inverse
+        int p = 1, q = 1;
+        do {
+            // p *= 3
+            p = (p ^ (p << 1) ^ ((p & 0x80) != 0 ? 0x1b : 0)) & 0xff;
+
+            // q /= 3
+            q ^= q << 1;
+            q ^= q << 2;
+            q ^= q << 4;
+            q &= 0xff;
+            if ((q & 0x80) != 0) q ^= 0x09;
+
+            int x = q ^ rotl8(q, 1) ^ rotl8(q, 2) ^ rotl8(q, 3) ^ rotl8(q, 4) ^ 0x63;
+            SBOX[p] = (byte) x;
+            INV_SBOX[x] = (byte) p;
+        } while (p != 1);
+
+        SBOX[0] = 0x63;
+        INV_SBOX[0x63] = 0;
+
+        for (int i = 0; i < 256; i++) {
+            int s = SBOX[i] & 0xff;
+            TE[i] = mul(s, 2) << 24 | s << 16 | s << 8 | mul(s, 3);
+
+            int t = INV_SBOX[i] & 0xff;
+            TD[i] = mul(t, 14) << 24 | mul(t, 9) << 16 | mul(t, 13) << 8 | mul(t, 11);
+        }
+    }
+
+    private final int[] mEncryptKeys = new int[4 * (ROUNDS + 1)];
+    private volatile int[] mDecryptKeys = null;
+
+    /**
+     * Expands a 16-byte AES key.
+     * @param key       Key buffer
+     * @param offset    Offset of the key in the buffer
+     */
+    public AES128(byte[] key, int offset) {
+        int[] w = mEncryptKeys;
+        for (int i = 0; i < 4; i++) {
+            w[i] = readInt(key, offset + 4 * i);
+        }
+
+        for (int i = 4; i < w.length; i++) {
+            int temp = w[i - 1];
+            if (0 == i % 4) {
+                temp = subWord(temp << 8 | temp >>> 24) ^ RCON[i / 4 - 1];
+            }
+            w[i] = w[i - 4] ^ temp;
+        }
+    }
+
+    public AES128(byte[] key) {
+        this(key, 0);
+    }
+
+    /**
+     * Encrypts a single 16-byte block. Source and destination may overlap.
+     */
+    public void encrypt(byte[] src, int srcOffset, byte[] dst, int dstOffset) {
+        int[] k = mEncryptKeys;
+
+        int s0 = readInt(src, srcOffset) ^ k[0];
+        int s1 = readInt(src, srcOffset + 4) ^ k[1];
+        int s2 = readInt(src, srcOffset + 8) ^ k[2];
+        int s3 = readInt(src, srcOffset + 12) ^ k[3];
+
+        int r = 4;
+        for (int round = 1; round < ROUNDS; round++, r += 4) {
+            int t0 = TE[s0 >>> 24] ^ ror(TE[(s1 >>> 16) & 0xff], 8) ^ ror(TE[(s2 >>> 8) & 0xff], 16) ^ ror(TE[s3 & 0xff], 24) ^ k[r];
+            int t1 = TE[s1 >>> 24] ^ ror(TE[(s2 >>> 16) & 0xff], 8) ^ ror(TE[(s3 >>> 8) & 0xff], 16) ^ ror(TE[s0 & 0xff], 24) ^ k[r + 1];
+            int t2 = TE[s2 >>> 24] ^ ror(TE[(s3 >>> 16) & 0xff], 8) ^ ror(TE[(s0 >>> 8) & 0xff], 16) ^ ror(TE[s1 & 0xff], 24) ^ k[r + 2];
+            int t3 = TE[s3 >>> 24] ^ ror(TE[(s0 >>> 16) & 0xff], 8) ^ ror(TE[(s1 >>> 8) & 0xff], 16) ^ ror(TE[s2 & 0xff], 24) ^ k[r + 3];
+            s0 = t0; s1 = t1; s2 = t2; s3 = t3;
+        }
+
+        // final round, without MixColumns
+        writeInt(dst, dstOffset, finalWord(SBOX, s0, s1, s2, s3) ^ k[r]);
+        writeInt(dst, dstOffset + 4, finalWord(SBOX, s1, s2, s3, s0) ^ k[r + 1]);
+        writeInt(dst, dstOffset + 8, finalWord(SBOX, s2, s3, s0, s1) ^ k[r + 2]);
+        writeInt(dst, dstOffset + 12, finalWord(SBOX, s3, s0, s1, s2) ^ k[r + 3]);
+    }
+
+    /**
+     * Decrypts a single 16-byte block. Source and destination may overlap.
+     */
+    public void decrypt(byte[] src, int srcOffset, byte[] dst, int dstOffset) {
+        int[] k = getDecryptKeys();
+
+        int s0 = readInt(src, srcOffset) ^ k[0];
+        int s1 = readInt(src, srcOffset + 4) ^ k[1];
+        int s2 = readInt(src, srcOffset + 8) ^ k[2];
+        int s3 = readInt(src, srcOffset + 12) ^ k[3];
+
+        int r = 4;
+        for (int round = 1; round < ROUNDS; round++, r += 4) {
+            int t0 = TD[s0 >>> 24] ^ ror(TD[(s3 >>> 16) & 0xff], 8) ^ ror(TD[(s2 >>> 8) & 0xff], 16) ^ ror(TD[s1 & 0xff], 24) ^ k[r];
+            int t1 = TD[s1 >>> 24] ^ ror(TD[(s0 >>> 16) & 0xff], 8) ^ ror(TD[(s3 >>> 8) & 0xff], 16) ^ ror(TD[s2 & 0xff], 24) ^ k[r + 1];
+            int t2 = TD[s2 >>> 24] ^ ror(TD[(s1 >>> 16) & 0xff], 8) ^ ror(TD[(s0 >>> 8) & 0xff], 16) ^ ror(TD[s3 & 0xff], 24) ^ k[r + 2];
+            int t3 = TD[s3 >>> 24] ^ ror(TD[(s2 >>> 16) & 0xff], 8) ^ ror(TD[(s1 >>> 8) & 0xff], 16) ^ ror(TD[s0 & 0xff], 24) ^ k[r + 3];
+            s0 = t0; s1 = t1; s2 = t2; s3 = t3;
+        }
+
+        writeInt(dst, dstOffset, finalWord(INV_SBOX, s0, s3, s2, s1) ^ k[r]);
+        writeInt(dst, dstOffset + 4, finalWord(INV_SBOX, s1, s0, s3, s2) ^ k[r + 1]);
+        writeInt(dst, dstOffset + 8, finalWord(INV_SBOX, s2, s1, s0, s3) ^ k[r + 2]);
+        writeInt(dst, dstOffset + 12, finalWord(INV_SBOX, s3, s2, s1, s0) ^ k[r + 3]);
+    }
+
+    /**
+     * Round keys for the equivalent inverse cipher: encryption keys in reverse round order,
+     * with InvMixColumns applied to all but the first and last round.
+     */
+    private int[] getDecryptKeys() {
+        int[] decryptKeys = mDecryptKeys;
+        if (null == decryptKeys) {
+            int[] dk = new int[mEncryptKeys.length];
+            for (int round = 0; round <= ROUNDS; round++) {
+                for (int i = 0; i < 4; i++) {
+                    int w = mEncryptKeys[4 * (ROUNDS - round) + i];
+                    if (round > 0 && round < ROUNDS) {
+                        w = TD[SBOX[w >>> 24] & 0xff]
+                                ^ ror(TD[SBOX[(w >>> 16) & 0xff] & 0xff], 8)
+                                ^ ror(TD[SBOX[(w >>> 8) & 0xff] & 0xff], 16)
+                                ^ ror(TD[SBOX[w & 0xff] & 0xff], 24);
+                    }
+                    dk[4 * round + i] = w;
+                }
+            }
+            mDecryptKeys = decryptKeys = dk;
+        }
+        return decryptKeys;
+    }
+
+    private static int finalWord(byte[] box, int a, int b, int c, int d) {
+        return (box[a >>> 24] & 0xff) << 24
+                | (box[(b >>> 16) & 0xff] & 0xff) << 16
+                | (box[(c >>> 8) & 0xff] & 0xff) << 8
+                | (box[d & 0xff] & 0xff);
+    }
+
+    private static int subWord(int w) {
+        return finalWord(SBOX, w, w, w, w);
+    }
+
+    private static int ror(int x, int n) {
+        return x >>> n | x << (32 - n);
+    }
+
+    private static int rotl8(int x, int n) {
+        return (x << n | x >>> (8 - n)) & 0xff;
+    }
+
+    private static int mul(int a, int b) {
+        int result = 0;
+        while (b != 0) {
+            if ((b & 1) != 0) result ^= a;
+            a = (a << 1) ^ ((a & 0x80) != 0 ? 0x11b : 0);
+            b >>>= 1;
+        }
+        return result;
+    }
+
+    private static int readInt(byte[] buf, int offset) {
+        return buf[offset] << 24 | (buf[offset + 1] & 0xff) << 16
+                | (buf[offset + 2] & 0xff) << 8 | (buf[offset + 3] & 0xff);
+    }
+
+    private static void writeInt(byte[] buf, int offset, int value) {
+        buf[offset] = (byte) (value >>> 24);
+        buf[offset + 1] = (byte) (value >>> 16);
+        buf[offset + 2] = (byte) (value >>> 8);
+        buf[offset + 3] = (byte) value;
+    }
+}
@@ -0,0 +1,59 @@
+package com.uriio.beacons.crypto;
+
+import org.whispersystems.curve25519.Curve25519;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.HashMap;
+
+/**
+ * Cached crypto primitives, so that provider lookups happen once instead of on every use.
+ * Message digests are stateful, so they are cached per thread and algorithm; a caller must
+ * finish with an instance before it requests another one of the same algorithm on the same thread.
+ * SecureRandom and Curve25519 are thread-safe and shared.
+ */
+public class CryptoProviders {
+    private static final ThreadLocal<HashMap<String, MessageDigest>> _digests = new ThreadLocal<HashMap<String, MessageDigest>>() {
+        @Override
+        protected HashMap<String, MessageDigest> initialValue() {
+            return new HashMap<>();
+        }
+    };
+
+    private static SecureRandom _secureRandom = null;
+    private static Curve25519 _curve25519 = null;
+
+    /**
+     * @param algorithm    Digest algorithm, for instance "SHA-256"
+     * @return The current thread's digest for the algorithm, reset.
+     */
+    public static MessageDigest getMessageDigest(String algorithm) throws NoSuchAlgorithmException {
+        HashMap<String, MessageDigest> digests = _digests.get();
+        MessageDigest digest = digests.get(algorithm);
+        if (null == digest) {
+            digest = MessageDigest.getInstance(algorithm);
+            digests.put(algorithm, digest);
+        } else {
+            digest.reset();
+        }
+        return digest;
+    }
+
+    public static synchronized SecureRandom getSecureRandom() {
+        if (null == _secureRandom) {
+            _secureRandom = new SecureRandom();
+        }
+        return _secureRandom;
+    }
+
+    /**
+     * @return The best available Curve25519 implementation (native if possible).
+     */
+    public static synchronized Curve25519 getCurve25519() {
+        if (null == _curve25519) {
+            _curve25519 = Curve25519.getInstance(Curve25519.BEST);
+        }
+        return _curve25519;
+    }
+}
@@ -0,0 +1,89 @@
+package com.uriio.beacons.crypto;
+
+import java.security.MessageDigest;
+
+/**
+ * HKDF-SHA256 key derivation (RFC 5869). The extract step's HMAC pads are kept per salt, so an
+ * instance can derive many keys with the same salt, or be re-salted in place.
+ * Derivation only allocates the first time it runs on a thread.
+ */
+public class HKDF {
+    /** Largest output size, per RFC 5869 */
+    public static final int MAX_OUTPUT_SIZE = 255 * HmacSHA256.MAC_SIZE;
+
+    private static class Scratch {
+        final HmacSHA256 expandMac = new HmacSHA256();
+        final byte[] pseudoRandomKey = new byte[HmacSHA256.MAC_SIZE];
+        final byte[] block = new byte[HmacSHA256.MAC_SIZE];
+    }
+
+    private static final ThreadLocal<Scratch> _scratch = new ThreadLocal<>();
+
+    private final HmacSHA256 mExtractMac;
+
+    /**
+     * @param salt    Salt, or null for none (equivalent to 32 zero bytes).
+     */
+    public HKDF(byte[] salt) {
+        mExtractMac = new HmacSHA256(salt);
+    }
+
+    public HKDF() {
+        this(null);
+    }
+
+    public void setSalt(byte[] salt) {
+        mExtractMac.setKey(salt, null);
+    }
+
+    /**
+     * Sets the salt to the concatenation of two parts, without building the concatenated array.
+     */
+    public void setSalt(byte[] first, byte[] second) {
+        mExtractMac.setKey(first, second);
+    }
+
+    /**
+     * Derives key material.
+     * @param inputKey     Input key material
+     * @param info         Context information, or null
+     * @param out          Output buffer
+     * @param outOffset    Offset in the output buffer
+     * @param outLength    Output size, at most {@link #MAX_OUTPUT_SIZE}
+     */
+    public void derive(byte[] inputKey, byte[] info, byte[] out, int outOffset, int outLength) {
+        if (outLength < 0 || outLength > MAX_OUTPUT_SIZE) {
+            throw new IllegalArgumentException("Invalid output size " + outLength);
+        }
+
+        Scratch scratch = _scratch.get();
+        if (null == scratch) {
+            scratch = new Scratch();
+            _scratch.set(scratch);
+        }
+
+        // extract
+        mExtractMac.compute(inputKey, 0, inputKey.length, scratch.pseudoRandomKey, 0);
+
+        // expand: T(n) = HMAC(PRK, T(n - 1) | info | n)
+        HmacSHA256 mac = scratch.expandMac;
+        mac.setKey(scratch.pseudoRandomKey, 0, HmacSHA256.MAC_SIZE);
+
+        byte[] block = scratch.block;
+        for (int n = 1, done = 0; done < outLength; n++) {
+            MessageDigest digest = mac.begin();
+            if (n > 1) {
+                digest.update(block);
+            }
+            if (null != info) {
+                digest.update(info);
+            }
+            digest.update((byte) n);
+            mac.finish(digest, block, 0);
+
+            int size = Math.min(HmacSHA256.MAC_SIZE, outLength - done);
+            System.arraycopy(block, 0, out, outOffset + done, size);
+            done += size;
+        }
+    }
+}
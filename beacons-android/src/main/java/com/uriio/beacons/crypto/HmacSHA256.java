@@ -0,0 +1,130 @@
+package com.uriio.beacons.crypto;
+
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * HMAC-SHA256 with the inner and outer key pads computed once per key, over a per-thread
+ * SHA-256 digest. Unlike {@link javax.crypto.Mac}, re-keying needs no provider lookup or key
+ * object, and results are written into caller buffers.
+ * An instance may be shared between threads as long as its key isn't changed meanwhile.
+ */
+public class HmacSHA256 {
+    public static final int BLOCK_SIZE = 64;
+    public static final int MAC_SIZE = 32;
+
+    private static final byte INNER_PAD = 0x36;
+    private static final byte OUTER_PAD = 0x5c;
+
+    private final byte[] mInnerPad = new byte[BLOCK_SIZE];
+    private final byte[] mOuterPad = new byte[BLOCK_SIZE];
+
+    /**
+     * Creates an instance with an empty key. Use one of the setKey() methods before computing.
+     */
+    public HmacSHA256() {
+        setKey(null, null);
+    }
+
+    public HmacSHA256(byte[] key) {
+        setKey(key, null);
+    }
+
+    /**
+     * Sets the key to the concatenation of two parts, without building the concatenated array.
+     * @param first     First part of the key, or null
+     * @param second    Second part of the key, or null
+     */
+    public void setKey(byte[] first, byte[] second) {
+        int firstLength = null == first ? 0 : first.length;
+        int secondLength = null == second ? 0 : second.length;
+
+        if (firstLength + secondLength > BLOCK_SIZE) {
+            // long keys are replaced by their hash
+            byte[] hash = new byte[MAC_SIZE];
+            MessageDigest digest = getDigest();
+            if (null != first) digest.update(first);
+            if (null != second) digest.update(second);
+            finishDigest(digest, hash, 0);
+
+            setKey(hash, null);
+            return;
+        }
+
+        for (int i = 0; i < BLOCK_SIZE; i++) {
+            byte b = i < firstLength ? first[i]
+                    : i < firstLength + secondLength ? second[i - firstLength]
+                    : 0;
+            mInnerPad[i] = (byte) (b ^ INNER_PAD);
+            mOuterPad[i] = (byte) (b ^ OUTER_PAD);
+        }
+    }
+
+    public void setKey(byte[] key, int offset, int length) {
+        if (length > BLOCK_SIZE) {
+            byte[] hash = new byte[MAC_SIZE];
+            MessageDigest digest = getDigest();
+            digest.update(key, offset, length);
+            finishDigest(digest, hash, 0);
+
+            setKey(hash, 0, MAC_SIZE);
+            return;
+        }
+
+        for (int i = 0; i < BLOCK_SIZE; i++) {
+            byte b = i < length ? key[offset + i] : 0;
+            mInnerPad[i] = (byte) (b ^ INNER_PAD);
+            mOuterPad[i] = (byte) (b ^ OUTER_PAD);
+        }
+    }
+
+    /**
+     * Computes the MAC of a message.
+     * @param out          Output buffer, needs room for {@link #MAC_SIZE} bytes.
+     * @param outOffset    Offset in the output buffer
+     */
+    public void compute(byte[] data, int offset, int length, byte[] out, int outOffset) {
+        MessageDigest digest = begin();
+        digest.update(data, offset, length);
+        finish(digest, out, outOffset);
+    }
+
+    /**
+     * Starts computing a MAC; the message is then fed to the returned digest.
+     * @return The current thread's digest, primed with the inner key pad.
+     */
+    MessageDigest begin() {
+        MessageDigest digest = getDigest();
+        digest.update(mInnerPad);
+        return digest;
+    }
+
+    /**
+     * Completes a MAC started with {@link #begin()}. The output buffer may have been an input.
+     */
+    void finish(MessageDigest digest, byte[] out, int outOffset) {
+        finishDigest(digest, out, outOffset);
+
+        digest.update(mOuterPad);
+        digest.update(out, outOffset, MAC_SIZE);
+        finishDigest(digest, out, outOffset);
+    }
+
+    private static void finishDigest(MessageDigest digest, byte[] out, int outOffset) {
+        try {
+            digest.digest(out, outOffset, MAC_SIZE);
+        } catch (DigestException e) {
+            throw new IllegalArgumentException("Output buffer too small", e);
+        }
+    }
+
+    private static MessageDigest getDigest() {
+        try {
+            return CryptoProviders.getMessageDigest("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // every Java and Android platform is required to provide SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package com.uriio.beacons.eid;
+
+import com.uriio.beacons.Callback;
+
+/**
+ * Non-blocking EID resolver contract methods. Callbacks may be invoked on any thread.
+ */
+public interface AsyncEIDResolver {
+    void queryRegistrationParams(Callback<RegisterParams> callback);
+
+    void registerBeacon(byte[] beaconPublicKey, byte rotationExponent, int timeCounter,
+                        byte[] ephemeralId, Callback<Boolean> callback);
+}
@@ -0,0 +1,160 @@
+package com.uriio.beacons.eid;
+
+import android.support.annotation.NonNull;
+
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Keeps the upcoming Ephemeral IDs of a single EID beacon precomputed, so that the (wakeful)
+ * rotation alarm only needs a lookup. Entries are keyed by rotation epoch (clock >>> exponent)
+ * and the next ones are computed on a shared background thread after every lookup.
+ */
+public class EIDCache {
+    /** Default number of rotation epochs kept, including the current one. */
+    public static final int DEFAULT_CAPACITY = 4;
+
+    private static ExecutorService _executor = null;
+
+    private final byte[] mIdentityKey;
+    private final byte mRotationExponent;
+
+    /** Ring buffer of computed EIDs; an epoch lives in slot (epoch % capacity). */
+    private final int[] mEpochs;
+    private final boolean[] mValid;
+    private final byte[][] mEids;
+
+    private boolean mPrefetchPending = false;
+
+    /**
+     * @param identityKey         16-byte Identity Key
+     * @param rotationExponent    EID rotation exponent (0 to 15)
+     * @param capacity            Number of epochs to keep computed, including the current one.
+     */
+    public EIDCache(byte[] identityKey, byte rotationExponent, int capacity) {
+        mIdentityKey = identityKey;
+        mRotationExponent = rotationExponent;
+
+        capacity = Math.max(2, capacity);
+        mEpochs = new int[capacity];
+        mValid = new boolean[capacity];
+        mEids = new byte[capacity][8];
+    }
+
+    public EIDCache(byte[] identityKey, byte rotationExponent) {
+        this(identityKey, rotationExponent, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Retrieves the EID for the given beacon clock. If the epoch was not precomputed (first start,
+     * or the device slept through several rotations) the EID is computed in place.
+     * Either way, computing the following epochs is then scheduled in the background.
+     * @param clock    Beacon clock, in seconds
+     * @return The 8 bytes of the Ephemeral ID that get advertised.
+     */
+    @NonNull
+    public byte[] getEID(int clock) throws GeneralSecurityException {
+        byte[] eid = new byte[8];
+        getEID(clock, eid, 0);
+        return eid;
+    }
+
+    /**
+     * Same as {@link #getEID(int)}, but writes the EID into the given buffer.
+     * Allocates nothing when the epoch was precomputed.
+     */
+    public void getEID(int clock, byte[] out, int offset) throws GeneralSecurityException {
+        int epoch = clock >>> mRotationExponent;
+
+        if (!lookup(epoch, out, offset)) {
+            byte[] eid = EIDUtils.computeEID(mIdentityKey, clock, mRotationExponent);
+            System.arraycopy(eid, 0, out, offset, 8);
+            store(epoch, eid);
+        }
+
+        prefetch(epoch);
+    }
+
+    public byte getRotationExponent() {
+        return mRotationExponent;
+    }
+
+    private synchronized boolean lookup(int epoch, byte[] out, int offset) {
+        int slot = slotOf(epoch);
+        if (mValid[slot] && mEpochs[slot] == epoch) {
+            System.arraycopy(mEids[slot], 0, out, offset, 8);
+            return true;
+        }
+        return false;
+    }
+
+    private synchronized void store(int epoch, byte[] eid) {
+        int slot = slotOf(epoch);
+        System.arraycopy(eid, 0, mEids[slot], 0, 8);
+        mEpochs[slot] = epoch;
+        mValid[slot] = true;
+    }
+
+    private synchronized boolean isCached(int epoch) {
+        int slot = slotOf(epoch);
+        return mValid[slot] && mEpochs[slot] == epoch;
+    }
+
+    private int slotOf(int epoch) {
+        // epochs are unsigned
+        return (int) ((epoch & 0xffffffffL) % mEpochs.length);
+    }
+
+    private void prefetch(final int currentEpoch) {
+        synchronized (this) {
+            if (mPrefetchPending) return;
+
+            boolean complete = true;
+            for (int i = 1; i < mEpochs.length && complete; i++) {
+                complete = isCached(currentEpoch + i);
+            }
+            if (complete) return;
+
+            mPrefetchPending = true;
+        }
+
+        getExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    for (int i = 1; i < mEpochs.length; i++) {
+                        int epoch = currentEpoch + i;
+                        if (isCached(epoch)) continue;
+
+                        byte[] eid = EIDUtils.computeEID(mIdentityKey, epoch << mRotationExponent, mRotationExponent);
+                        store(epoch, Arrays.copyOf(eid, 8));
+                    }
+                } catch (GeneralSecurityException ignored) {
+                    // the rotation alarm falls back to computing the EID by itself
+                } finally {
+                    synchronized (EIDCache.this) {
+                        mPrefetchPending = false;
+                    }
+                }
+            }
+        });
+    }
+
+    private static synchronized ExecutorService getExecutor() {
+        if (null == _executor) {
+            _executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(@NonNull Runnable r) {
+                    Thread thread = new Thread(r, "EIDCache");
+                    thread.setDaemon(true);
+                    thread.setPriority(Thread.MIN_PRIORITY);
+                    return thread;
+                }
+            });
+        }
+        return _executor;
+    }
+}
@@ -0,0 +1,133 @@
+package com.uriio.beacons.eid;
+
+import android.support.annotation.NonNull;
+
+import com.uriio.beacons.crypto.AES128;
+
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Ephemeral ID computation with memoized temporary keys.
+ * The first AES stage only depends on the identity key and on the upper 16 bits of the time
+ * counter, so its result is kept per identity key for as long as that 65536-second epoch lasts,
+ * already expanded into AES round keys.
+ */
+public class EIDEngine {
+    /** Default number of identity keys for which a temporary key is remembered. */
+    public static final int DEFAULT_CAPACITY = 64;
+
+    private static EIDEngine _shared = null;
+
+    private static class TemporaryKey {
+        int epoch;
+        /** Temporary key with expanded round keys */
+        AES128 cipher;
+    }
+
+    /** Access-ordered, so the least recently used identity key is evicted first. */
+    private final LinkedHashMap<ByteBuffer, TemporaryKey> mTemporaryKeys;
+
+    /**
+     * @return Engine instance used by EIDUtils, beacons and the local resolver.
+     */
+    public static synchronized EIDEngine getShared() {
+        if (null == _shared) {
+            _shared = new EIDEngine(DEFAULT_CAPACITY);
+        }
+        return _shared;
+    }
+
+    /**
+     * @param capacity    Maximum number of identity keys for which temporary keys are memoized.
+     */
+    public EIDEngine(final int capacity) {
+        mTemporaryKeys = new LinkedHashMap<ByteBuffer, TemporaryKey>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<ByteBuffer, TemporaryKey> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Computes an Ephemeral ID.
+     * @param key                 AES key (Advertiser Identity Key). The first 16 bytes are used.
+     * @param timeCounter         Advertiser time counter
+     * @param rotationExponent    Advertiser rotation exponent (0 to 15)
+     * @return Final ephemeral key of 16 bytes, of which only the first 8 bytes should be used.
+     */
+    @NonNull
+    public byte[] computeEID(byte[] key, int timeCounter, byte rotationExponent) throws GeneralSecurityException {
+        byte[] eid = new byte[16];
+        computeEID(key, timeCounter, rotationExponent, eid, 0);
+        return eid;
+    }
+
+    /**
+     * Computes an Ephemeral ID into a caller-supplied buffer, without allocating unless the
+     * temporary key needs to be (re)computed.
+     * @param key                 AES key (Advertiser Identity Key). The first 16 bytes are used.
+     * @param timeCounter         Advertiser time counter
+     * @param rotationExponent    Advertiser rotation exponent (0 to 15)
+     * @param out                 Output buffer, receives the full 16 bytes AES block.
+     * @param outOffset           Offset in the output buffer
+     */
+    public void computeEID(byte[] key, int timeCounter, byte rotationExponent, byte[] out, int outOffset) {
+        AES128 tempKey = getTemporaryKey(key, timeCounter >>> 16);
+
+        // clear K lowest bits
+        timeCounter = timeCounter >>> rotationExponent << rotationExponent;
+
+        // the output block doubles as the input block, since AES128 encrypts in place
+        Arrays.fill(out, outOffset, outOffset + 11, (byte) 0);
+        out[outOffset + 11] = rotationExponent;
+        out[outOffset + 12] = (byte) ((timeCounter >>> 24) & 0xff);
+        out[outOffset + 13] = (byte) ((timeCounter >>> 16) & 0xff);
+        out[outOffset + 14] = (byte) ((timeCounter >>> 8) & 0xff);
+        out[outOffset + 15] = (byte) (timeCounter & 0xff);
+
+        tempKey.encrypt(out, outOffset, out, outOffset);
+    }
+
+    /**
+     * Forgets all memoized temporary keys.
+     */
+    public synchronized void clear() {
+        mTemporaryKeys.clear();
+    }
+
+    private AES128 getTemporaryKey(byte[] key, int epoch) {
+        ByteBuffer lookupKey = ByteBuffer.wrap(key, 0, 16);
+
+        synchronized (this) {
+            TemporaryKey tempKey = mTemporaryKeys.get(lookupKey);
+            if (null != tempKey && tempKey.epoch == epoch) {
+                return tempKey.cipher;
+            }
+        }
+
+        byte[] tempKeyBytes = new byte[] {
+                0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00,
+                (byte) 0xff,
+                0x00, 0x00,
+                (byte) ((epoch >>> 8) & 0xff),
+                (byte) (epoch & 0xff)
+        };
+        new AES128(key, 0).encrypt(tempKeyBytes, 0, tempKeyBytes, 0);
+
+        TemporaryKey tempKey = new TemporaryKey();
+        tempKey.epoch = epoch;
+        tempKey.cipher = new AES128(tempKeyBytes, 0);
+
+        synchronized (this) {
+            // don't keep a reference to the caller's array, it may be modified later
+            mTemporaryKeys.put(ByteBuffer.wrap(Arrays.copyOf(key, 16)), tempKey);
+        }
+
+        return tempKey.cipher;
+    }
+}
@@ -0,0 +1,333 @@
+package com.uriio.beacons.eid;
+
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+
+/**
+ * Resolver-side lookup of Ephemeral IDs. For every registered beacon the EIDs of a sliding window
+ * of rotation epochs (current epoch +/- skew) are kept precomputed in a hashed EID to beacon
+ * index table, so a sighted EID resolves to its beacon in constant time, without allocation.
+ * Beacons are kept in a min-heap by the time they enter their next epoch, so a refresh only
+ * touches the beacons whose epoch changed.
+ * Subclasses only provide the storage, either in memory or in a memory-mapped file.
+ */
+public abstract class EIDIndex {
+    /** Beacon ID size; resolvers identify beacons by their 32-byte public key. */
+    public static final int BEACON_ID_SIZE = 32;
+
+    private final int mSkew;
+    private final int mWindow;
+    private EIDEngine mEngine = new EIDEngine(EIDEngine.DEFAULT_CAPACITY);
+    private final byte[] mIdentityKeyBuffer = new byte[16];
+    private final byte[] mEidBuffer = new byte[16];
+
+    /** Min-heap of beacons by next epoch time, in parallel arrays; built by the first refresh */
+    private long[] mDueTimes = new long[16];
+    private int[] mDueBeacons = new int[16];
+    private int mDueCount = 0;
+    private boolean mDueBuilt = false;
+
+    protected EIDIndex(int skew) {
+        mSkew = Math.max(0, skew);
+        mWindow = 2 * mSkew + 1;
+    }
+
+    //region Storage
+
+    protected abstract int getBeaconCount();
+    protected abstract int appendBeacon(byte[] identityKey, byte rotationExponent, int clockOffset, byte[] beaconId);
+    protected abstract void readIdentityKey(int beacon, byte[] out);
+    protected abstract byte readRotationExponent(int beacon);
+    protected abstract int readClockOffset(int beacon);
+    protected abstract boolean isActive(int beacon);
+    protected abstract void setInactive(int beacon);
+    protected abstract int readCenterEpoch(int beacon);
+    protected abstract void writeCenterEpoch(int beacon, int epoch);
+
+    /** @param pos    Window position, (beacon * window + epoch % window) */
+    protected abstract long readWindowEid(int pos);
+    protected abstract void writeWindowEid(int pos, long eid);
+
+    protected abstract int lookupGet(long eid);
+    protected abstract void lookupPut(long eid, int beacon);
+    protected abstract void lookupRemove(long eid);
+
+    /** @return Earliest time at which at least one beacon enters a new rotation epoch. */
+    protected abstract long readNextRefreshTime();
+    protected abstract void writeNextRefreshTime(long time);
+
+    /**
+     * Called before the storage is modified. Until the matching {@link #endUpdate()}, the windows
+     * and the lookup table may disagree.
+     */
+    protected void beginUpdate() {
+    }
+
+    protected void endUpdate() {
+    }
+
+    //endregion
+
+    /**
+     * Sets for how many beacons the temporary keys of their EIDs are memoized. A temporary key
+     * lasts 65536 seconds, so with one per beacon most refreshes cost a single AES block instead
+     * of a key derivation. Each key takes about 250 bytes.
+     */
+    public synchronized void setTemporaryKeyCapacity(int capacity) {
+        mEngine = new EIDEngine(Math.max(1, capacity));
+    }
+
+    /**
+     * Converts the first 8 bytes of an EID to the key used by the index.
+     */
+    public static long toKey(byte[] eid, int offset) {
+        long key = 0;
+        for (int i = 0; i < 8; i++) {
+            key = key << 8 | (eid[offset + i] & 0xff);
+        }
+        return key;
+    }
+
+    /**
+     * Adds a beacon to the index and computes the EIDs of its current window.
+     * @param identityKey         Beacon identity key (16 bytes)
+     * @param rotationExponent    EID rotation exponent (0 to 15)
+     * @param clockOffset         Difference between the beacon's time counter and resolver time, in seconds
+     * @param beaconId            Beacon public key (32 bytes), or null
+     * @param now                 Current resolver time, in seconds
+     * @return The index of the new beacon.
+     */
+    public synchronized int add(byte[] identityKey, byte rotationExponent, int clockOffset,
+                                byte[] beaconId, int now) throws GeneralSecurityException {
+        beginUpdate();
+        int beacon = appendBeacon(identityKey, rotationExponent, clockOffset, beaconId);
+
+        int epoch = currentEpoch(beacon, now);
+        indexWindow(beacon, epoch - mSkew, epoch + mSkew);
+        writeCenterEpoch(beacon, epoch);
+
+        long nextEpochTime = nextEpochTime(beacon, epoch);
+        if (mDueBuilt) {
+            pushDue(beacon, nextEpochTime);
+        }
+        writeNextRefreshTime(Math.min(readNextRefreshTime(), nextEpochTime));
+        endUpdate();
+
+        return beacon;
+    }
+
+    /**
+     * Removes a beacon's EIDs from the index. Its index is not reused.
+     */
+    public synchronized void remove(int beacon) {
+        if (beacon < 0 || beacon >= getBeaconCount() || !isActive(beacon)) return;
+
+        beginUpdate();
+        unindexWindow(beacon, readCenterEpoch(beacon));
+        setInactive(beacon);
+        endUpdate();
+    }
+
+    /**
+     * @param eid    EID key, see {@link #toKey(byte[], int)}
+     * @return Index of the beacon that advertises this EID within its window, or -1 if unknown.
+     */
+    public synchronized int resolve(long eid) {
+        return lookupGet(eid);
+    }
+
+    public int resolve(byte[] eid, int offset) {
+        return resolve(toKey(eid, offset));
+    }
+
+    /**
+     * Slides the window of every beacon that entered a new rotation epoch. Does nothing until
+     * at least one beacon's epoch ends, so it's cheap to call before every lookup. The first
+     * refresh that has work to do visits every beacon, to build the heap of epoch times; later
+     * ones only visit the beacons that are due.
+     * @param now    Current resolver time, in seconds
+     */
+    public synchronized void refresh(int now) throws GeneralSecurityException {
+        if (mDueBuilt ? 0 == mDueCount || now < mDueTimes[0] : now < readNextRefreshTime()) return;
+
+        beginUpdate();
+        if (!mDueBuilt) {
+            int count = getBeaconCount();
+            for (int beacon = 0; beacon < count; beacon++) {
+                if (isActive(beacon)) {
+                    pushDue(beacon, nextEpochTime(beacon, slideWindow(beacon, now)));
+                }
+            }
+            mDueBuilt = true;
+        } else {
+            while (mDueCount > 0 && mDueTimes[0] <= now) {
+                int beacon = mDueBeacons[0];
+                if (isActive(beacon)) {
+                    mDueTimes[0] = nextEpochTime(beacon, slideWindow(beacon, now));
+                } else {
+                    // removed beacons leave the heap once due
+                    mDueCount--;
+                    mDueTimes[0] = mDueTimes[mDueCount];
+                    mDueBeacons[0] = mDueBeacons[mDueCount];
+                }
+                siftDownDue(0);
+            }
+        }
+
+        writeNextRefreshTime(mDueCount > 0 ? mDueTimes[0] : Long.MAX_VALUE);
+        endUpdate();
+    }
+
+    /**
+     * Recomputes the windows of all active beacons around their center epochs, e.g. after an
+     * interrupted update. The storage must have cleared the windows and the lookup table first.
+     * The next refresh then visits every beacon.
+     */
+    protected void reindex() throws GeneralSecurityException {
+        int count = getBeaconCount();
+        for (int beacon = 0; beacon < count; beacon++) {
+            if (isActive(beacon)) {
+                int epoch = readCenterEpoch(beacon);
+                indexWindow(beacon, epoch - mSkew, epoch + mSkew);
+            }
+        }
+
+        mDueCount = 0;
+        mDueBuilt = false;
+        writeNextRefreshTime(Long.MIN_VALUE);
+    }
+
+    /**
+     * Moves a beacon's window to its current epoch.
+     * @return The current epoch.
+     */
+    private int slideWindow(int beacon, int now) throws GeneralSecurityException {
+        int oldEpoch = readCenterEpoch(beacon);
+        int epoch = currentEpoch(beacon, now);
+
+        if (epoch != oldEpoch) {
+            if (epoch - oldEpoch >= mWindow || epoch < oldEpoch) {
+                // no overlap with the old window (or clock went back), re-index everything
+                unindexWindow(beacon, oldEpoch);
+                indexWindow(beacon, epoch - mSkew, epoch + mSkew);
+            } else {
+                // slots of expired epochs are reused by the new ones
+                indexWindow(beacon, oldEpoch + mSkew + 1, epoch + mSkew);
+            }
+            writeCenterEpoch(beacon, epoch);
+        }
+
+        return epoch;
+    }
+
+    private void pushDue(int beacon, long time) {
+        if (mDueCount == mDueTimes.length) {
+            mDueTimes = Arrays.copyOf(mDueTimes, mDueCount << 1);
+            mDueBeacons = Arrays.copyOf(mDueBeacons, mDueCount << 1);
+        }
+
+        int i = mDueCount++;
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (mDueTimes[parent] <= time) break;
+
+            mDueTimes[i] = mDueTimes[parent];
+            mDueBeacons[i] = mDueBeacons[parent];
+            i = parent;
+        }
+        mDueTimes[i] = time;
+        mDueBeacons[i] = beacon;
+    }
+
+    private void siftDownDue(int i) {
+        long time = mDueTimes[i];
+        int beacon = mDueBeacons[i];
+
+        int half = mDueCount >>> 1;
+        while (i < half) {
+            int child = 2 * i + 1;
+            if (child + 1 < mDueCount && mDueTimes[child + 1] < mDueTimes[child]) {
+                child++;
+            }
+            if (time <= mDueTimes[child]) break;
+
+            mDueTimes[i] = mDueTimes[child];
+            mDueBeacons[i] = mDueBeacons[child];
+            i = child;
+        }
+        mDueTimes[i] = time;
+        mDueBeacons[i] = beacon;
+    }
+
+    /**
+     * @return Number of beacons added so far, including removed ones.
+     */
+    public synchronized int size() {
+        return getBeaconCount();
+    }
+
+    public synchronized byte getRotationExponent(int beacon) {
+        return readRotationExponent(beacon);
+    }
+
+    public synchronized int getClockOffset(int beacon) {
+        return readClockOffset(beacon);
+    }
+
+    /**
+     * @return The beacon's public key, as given when it was added, or null.
+     */
+    public abstract byte[] getBeaconId(int beacon);
+
+    protected int getWindow() {
+        return mWindow;
+    }
+
+    private void indexWindow(int beacon, int fromEpoch, int toEpoch) throws GeneralSecurityException {
+        byte[] identityKey = mIdentityKeyBuffer;
+        readIdentityKey(beacon, identityKey);
+        byte rotationExponent = readRotationExponent(beacon);
+
+        for (int epoch = fromEpoch; epoch <= toEpoch; epoch++) {
+            int pos = beacon * mWindow + slotOf(epoch);
+
+            // the slot holds the EID of the epoch that just left the window
+            long expired = readWindowEid(pos);
+            if (0 != expired) {
+                unindex(beacon, expired);
+            }
+
+            mEngine.computeEID(identityKey, epoch << rotationExponent, rotationExponent, mEidBuffer, 0);
+            long eid = toKey(mEidBuffer, 0);
+            writeWindowEid(pos, eid);
+            lookupPut(eid, beacon);
+        }
+    }
+
+    private void unindexWindow(int beacon, int centerEpoch) {
+        for (int epoch = centerEpoch - mSkew; epoch <= centerEpoch + mSkew; epoch++) {
+            int pos = beacon * mWindow + slotOf(epoch);
+            unindex(beacon, readWindowEid(pos));
+            writeWindowEid(pos, 0);
+        }
+    }
+
+    private void unindex(int beacon, long eid) {
+        // don't remove an EID that collided with another beacon's and got overwritten
+        if (lookupGet(eid) == beacon) {
+            lookupRemove(eid);
+        }
+    }
+
+    private int currentEpoch(int beacon, int now) {
+        return (now + readClockOffset(beacon)) >>> readRotationExponent(beacon);
+    }
+
+    private long nextEpochTime(int beacon, int epoch) {
+        return ((long) (epoch + 1) << readRotationExponent(beacon)) - readClockOffset(beacon);
+    }
+
+    private int slotOf(int epoch) {
+        return (int) ((epoch & 0xffffffffL) % mWindow);
+    }
+}
@@ -0,0 +1,141 @@
+package com.uriio.beacons.eid;
+
+import com.uriio.beacons.Callback;
+
+import org.whispersystems.curve25519.Curve25519KeyPair;
+
+import java.security.GeneralSecurityException;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Registers many EID beacons at once. Registration parameters are queried a single time, the key
+ * agreements and identity key derivations run in parallel on an executor, and every beacon is
+ * sent for registration as soon as its own first EID is ready.
+ */
+public class EIDRegistrar {
+    private final AsyncEIDResolver mResolver;
+    private final Executor mExecutor;
+
+    /**
+     * @param resolver    EID resolver
+     * @param executor    Executor for the crypto work, usually a pool of one thread per CPU core.
+     */
+    public EIDRegistrar(AsyncEIDResolver resolver, Executor executor) {
+        mResolver = resolver;
+        mExecutor = executor;
+    }
+
+    /**
+     * Attempts registration of all given beacons.
+     * @param keyPairs            Advertiser key pairs
+     * @param rotationExponent    EID rotation exponent (0 to 15)
+     * @param callback            Receives one result per key pair, in the same order. An entry is
+     *                            null if that beacon's registration failed. The error is set only if
+     *                            registration parameters could not be retrieved.
+     */
+    public void register(final List<Curve25519KeyPair> keyPairs, final byte rotationExponent,
+                         final Callback<RegistrationResult[]> callback) {
+        final RegistrationResult[] results = new RegistrationResult[keyPairs.size()];
+        if (0 == results.length) {
+            callback.onResult(results, null);
+            return;
+        }
+
+        mResolver.queryRegistrationParams(new Callback<RegisterParams>() {
+            @Override
+            public void onResult(RegisterParams registerParams, Throwable error) {
+                if (null == registerParams) {
+                    callback.onResult(null, null != error ? error
+                            : new IllegalStateException("No registration parameters"));
+                    return;
+                }
+
+                AtomicInteger pending = new AtomicInteger(results.length);
+                for (int i = 0; i < results.length; i++) {
+                    RegisterTask task = new RegisterTask(registerParams, keyPairs.get(i), rotationExponent,
+                            results, i, pending, callback);
+                    try {
+                        mExecutor.execute(task);
+                    } catch (RuntimeException e) {
+                        // e.g. the executor was shut down; the batch must still complete
+                        task.onDone(null);
+                    }
+                }
+            }
+        });
+    }
+
+    private class RegisterTask implements Runnable, Callback<Boolean> {
+        private final RegisterParams mRegisterParams;
+        private final Curve25519KeyPair mKeyPair;
+        private final byte mRotationExponent;
+        private final RegistrationResult[] mResults;
+        private final int mPosition;
+        private final AtomicInteger mPending;
+        private final Callback<RegistrationResult[]> mCallback;
+
+        private RegistrationResult mResult = null;
+        private final AtomicBoolean mDone = new AtomicBoolean(false);
+
+        RegisterTask(RegisterParams registerParams, Curve25519KeyPair keyPair, byte rotationExponent,
+                     RegistrationResult[] results, int position, AtomicInteger pending,
+                     Callback<RegistrationResult[]> callback) {
+            mRegisterParams = registerParams;
+            mKeyPair = keyPair;
+            mRotationExponent = rotationExponent;
+            mResults = results;
+            mPosition = position;
+            mPending = pending;
+            mCallback = callback;
+        }
+
+        @Override
+        public void run() {
+            byte[] publicKey = mKeyPair.getPublicKey();
+            int timeCounter;
+            byte[] firstEID;
+
+            try {
+                byte[] sharedSecret = EIDUtils.computeSharedSecret(mRegisterParams.publicKey, mKeyPair.getPrivateKey());
+                byte[] identityKey = EIDUtils.computeIdentityKey(sharedSecret, mRegisterParams.publicKey, publicKey);
+
+                int now = (int) (System.currentTimeMillis() / 1000);
+                timeCounter = EIDUtils.getInitialTimeCounter(now);
+                firstEID = EIDUtils.computeEID(identityKey, timeCounter, mRotationExponent);
+
+                mResult = new RegistrationResult(identityKey, now - timeCounter);
+            } catch (GeneralSecurityException | RuntimeException e) {
+                // a malformed server key fails the key agreement with an IllegalArgumentException
+                onDone(null);
+                return;
+            }
+
+            try {
+                mResolver.registerBeacon(publicKey, mRotationExponent, timeCounter, firstEID, this);
+            } catch (RuntimeException e) {
+                onDone(null);
+            }
+        }
+
+        /** Registration result */
+        @Override
+        public void onResult(Boolean registered, Throwable error) {
+            onDone(null != registered && registered ? mResult : null);
+        }
+
+        private void onDone(RegistrationResult result) {
+            // count each beacon once, even if the resolver both called back and threw
+            if (!mDone.compareAndSet(false, true)) return;
+
+            mResults[mPosition] = result;
+
+            // the atomic decrement also publishes the result to the thread that sees zero
+            if (0 == mPending.decrementAndGet()) {
+                mCallback.onResult(mResults, null);
+            }
+        }
+    }
+}
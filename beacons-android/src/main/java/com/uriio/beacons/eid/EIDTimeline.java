@@ -0,0 +1,164 @@
+package com.uriio.beacons.eid;
+
+import android.os.Build;
+import android.support.annotation.RequiresApi;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * The Ephemeral IDs of a beacon over a range of rotation epochs, produced in epoch order.
+ * A timeline is traversed once, like an iterator, and can be split into two halves that are
+ * traversed independently, for instance on separate threads. EIDs are delivered as the long
+ * made of their 8 advertised bytes (big-endian), so nothing gets boxed.
+ */
+public class EIDTimeline {
+    /** Smallest number of epochs worth splitting off for parallel computation. */
+    private static final int MIN_SPLIT_SIZE = 64;
+
+    public interface Visitor {
+        /**
+         * @param epoch    Rotation epoch, i.e. the beacon clock shifted right by the rotation exponent.
+         * @param eid      Ephemeral ID, as returned by {@link EIDIndex#toKey(byte[], int)}
+         */
+        void onEID(int epoch, long eid);
+    }
+
+    private final byte[] mIdentityKey;
+    private final byte mRotationExponent;
+
+    /** Next epoch, and end of the range (exclusive); unsigned epochs are kept in longs. */
+    private long mEpoch;
+    private final long mEndEpoch;
+
+    private final EIDEngine mEngine = new EIDEngine(1);
+    private final byte[] mEidBuffer = new byte[16];
+
+    /**
+     * @param identityKey         Beacon Identity Key. The first 16 bytes are used.
+     * @param rotationExponent    EID rotation exponent (0 to 15)
+     * @param fromClock           Beacon clock (time counter) of the first EID
+     * @param toClock             Beacon clock of the last EID, inclusive
+     */
+    public EIDTimeline(byte[] identityKey, byte rotationExponent, int fromClock, int toClock) {
+        this(identityKey, rotationExponent,
+                (fromClock & 0xffffffffL) >>> rotationExponent,
+                ((toClock & 0xffffffffL) >>> rotationExponent) + 1);
+    }
+
+    private EIDTimeline(byte[] identityKey, byte rotationExponent, long fromEpoch, long endEpoch) {
+        mIdentityKey = identityKey;
+        mRotationExponent = rotationExponent;
+        mEpoch = fromEpoch;
+        mEndEpoch = Math.max(fromEpoch, endEpoch);
+    }
+
+    /**
+     * Computes the next EID, if any.
+     * @return False if the timeline has no more epochs.
+     */
+    public boolean tryAdvance(Visitor visitor) {
+        if (mEpoch >= mEndEpoch) return false;
+
+        int epoch = (int) mEpoch++;
+        visitor.onEID(epoch, computeEID(epoch));
+        return true;
+    }
+
+    /**
+     * Computes all the remaining EIDs.
+     */
+    public void forEachRemaining(Visitor visitor) {
+        while (mEpoch < mEndEpoch) {
+            int epoch = (int) mEpoch++;
+            visitor.onEID(epoch, computeEID(epoch));
+        }
+    }
+
+    /**
+     * Splits off the first half of the remaining epochs. This timeline keeps the second half.
+     * @return A timeline of the first half, or null if too few epochs remain to be worth it.
+     */
+    public EIDTimeline trySplit() {
+        long size = mEndEpoch - mEpoch;
+        if (size < 2 * MIN_SPLIT_SIZE) return null;
+
+        long middle = mEpoch + size / 2;
+        EIDTimeline prefix = new EIDTimeline(mIdentityKey, mRotationExponent, mEpoch, middle);
+        mEpoch = middle;
+        return prefix;
+    }
+
+    /**
+     * @return Number of EIDs remaining.
+     */
+    public long estimateSize() {
+        return mEndEpoch - mEpoch;
+    }
+
+    /**
+     * Computes the remaining EIDs on the calling thread.
+     * @return The EIDs in epoch order.
+     */
+    public long[] toArray() {
+        long[] eids = new long[checkedSize()];
+        fill(eids, 0);
+        return eids;
+    }
+
+    /**
+     * Computes the remaining EIDs by recursively splitting the timeline on a fork-join pool.
+     * @return The EIDs in epoch order.
+     */
+    @RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
+    public long[] toArray(ForkJoinPool pool) {
+        long[] eids = new long[checkedSize()];
+        pool.invoke(new FillTask(this, eids, 0));
+        return eids;
+    }
+
+    @RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
+    private static class FillTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final EIDTimeline mTimeline;
+        private final long[] mEids;
+        private final int mOffset;
+
+        FillTask(EIDTimeline timeline, long[] eids, int offset) {
+            mTimeline = timeline;
+            mEids = eids;
+            mOffset = offset;
+        }
+
+        @Override
+        protected void compute() {
+            EIDTimeline prefix = mTimeline.trySplit();
+            if (null == prefix) {
+                mTimeline.fill(mEids, mOffset);
+            } else {
+                invokeAll(new FillTask(prefix, mEids, mOffset),
+                        new FillTask(mTimeline, mEids, mOffset + (int) prefix.estimateSize()));
+            }
+        }
+    }
+
+    private int checkedSize() {
+        long size = estimateSize();
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalStateException("Too many epochs: " + size);
+        }
+        return (int) size;
+    }
+
+    private void fill(long[] eids, int offset) {
+        while (mEpoch < mEndEpoch) {
+            eids[offset++] = computeEID((int) mEpoch++);
+        }
+    }
+
+    private long computeEID(int epoch) {
+        mEngine.computeEID(mIdentityKey, epoch << mRotationExponent, mRotationExponent, mEidBuffer, 0);
+        return EIDIndex.toKey(mEidBuffer, 0);
+    }
+}
@@ -1,28 +1,27 @@
 package com.uriio.beacons.eid;
 
-import android.annotation.SuppressLint;
 import android.support.annotation.NonNull;
 
 import com.uriio.beacons.Util;
-
-import org.whispersystems.curve25519.Curve25519;
+import com.uriio.beacons.crypto.CryptoProviders;
+import com.uriio.beacons.crypto.HKDF;
 
 import java.security.GeneralSecurityException;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
 
-import javax.crypto.Cipher;
-import javax.crypto.Mac;
-import javax.crypto.spec.SecretKeySpec;
-
 /**
  * EID helper methods, mainly crypto.
  * Created on 4/29/2016.
  */
 public class EIDUtils {
+    /** Size of a derived Identity Key. Only the first 16 bytes are used as AES key. */
+    public static final int IDENTITY_KEY_SIZE = 32;
+
+    private static final ThreadLocal<HKDF> _hkdf = new ThreadLocal<>();
 
     /**
-     * Computes an Ephemeral ID.
+     * Computes an Ephemeral ID. Temporary keys are memoized by the shared {@link EIDEngine}.
      * @param key                 AES key (Advertiser Identity Key). The first 16 bytes are used.
      * @param timeCounter         Advertiser time counter
      * @param rotationExponent    Advertiser rotation exponent (0 to 15)
@@ -30,31 +29,7 @@ public class EIDUtils {
      */
     @NonNull
     public static byte[] computeEID(byte[] key, int timeCounter, byte rotationExponent) throws GeneralSecurityException {
-        @SuppressLint("GetInstance")  // spec says it has to be ECB, ignore lint warning
-        Cipher aes = Cipher.getInstance("AES/ECB/NoPadding");
-        aes.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(key, 0, 16, "AES"));
-
-        byte[] tempKey = aes.doFinal(new byte[] {
-                0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00,
-                (byte) 0xff,
-                0x00, 0x00,
-                (byte) ((timeCounter >>> 24) & 0xff),
-                (byte) ((timeCounter >>> 16) & 0xff)
-        });
-
-        // clear K lowest bits
-        timeCounter = timeCounter >>> rotationExponent << rotationExponent;
-
-        // reset cipher with a new encryption key
-        aes.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(tempKey, "AES"));
-        return aes.doFinal(new byte[]{
-                0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00,
-                rotationExponent,
-                (byte) ((timeCounter >>> 24) & 0xff),
-                (byte) ((timeCounter >>> 16) & 0xff),
-                (byte) ((timeCounter >>> 8) & 0xff),
-                (byte) (timeCounter & 0xff)
-        });
+        return EIDEngine.getShared().computeEID(key, timeCounter, rotationExponent);
     }
 
     /**
@@ -66,34 +41,53 @@ public class EIDUtils {
         // this should yield the exact same result as in EIDResolver.registerBeacon
 //        Util.log("Server public key: " + Util.binToHex(serverPublicKey));
 //        Util.log("Advertiser private key: " + Util.binToHex(beaconPrivateKey));
-        return Curve25519.getInstance(Curve25519.BEST).calculateAgreement(serverPublicKey, beaconPrivateKey);
+        return CryptoProviders.getCurve25519().calculateAgreement(serverPublicKey, beaconPrivateKey);
     }
 
+    /**
+     * Derives the Identity Key with HKDF-SHA256, salted with both public keys.
+     * @return Identity Key of 32 bytes, of which the first 16 are used.
+     */
     public static byte[] computeIdentityKey(byte[] sharedSecret, byte[] serverPublicKey,
                                             byte[] beaconPublicKey) throws InvalidKeyException, NoSuchAlgorithmException {
+        byte[] identityKey = new byte[IDENTITY_KEY_SIZE];
+        computeIdentityKey(sharedSecret, serverPublicKey, beaconPublicKey, identityKey, 0);
+        return identityKey;
+    }
+
+    /**
+     * Derives the Identity Key into a caller-supplied buffer, using a per-thread HKDF engine.
+     * @param out          Output buffer, receives {@link #IDENTITY_KEY_SIZE} bytes.
+     * @param outOffset    Offset in the output buffer
+     */
+    public static void computeIdentityKey(byte[] sharedSecret, byte[] serverPublicKey, byte[] beaconPublicKey,
+                                          byte[] out, int outOffset) throws InvalidKeyException {
         if (Util.isZeroBuffer(sharedSecret)) {
             throw new InvalidKeyException("Shared secret is zero");
         }
 
-        byte[] salt = new byte[serverPublicKey.length + beaconPublicKey.length];
-        System.arraycopy(serverPublicKey, 0, salt, 0, serverPublicKey.length);
-        System.arraycopy(beaconPublicKey, 0, salt, serverPublicKey.length, beaconPublicKey.length);
-
-        Mac mac = Mac.getInstance("hmacSHA256");
-
-        // hkdf extract
-        mac.init(new SecretKeySpec(salt, "hmacSHA256"));
-        byte[] pseudoRandomKey = mac.doFinal(sharedSecret);
+        HKDF hkdf = _hkdf.get();
+        if (null == hkdf) {
+            hkdf = new HKDF();
+            _hkdf.set(hkdf);
+        }
 
-        // hkdf expand
-        mac.reset();
-        mac.init(new SecretKeySpec(pseudoRandomKey, "hmacSHA256"));
+        // the salt includes the beacon's key, so there is nothing to keep between beacons
+        hkdf.setSalt(serverPublicKey, beaconPublicKey);
+        hkdf.derive(sharedSecret, null, out, outOffset, IDENTITY_KEY_SIZE);
+    }
 
-        return mac.doFinal(new byte[]{1});
+    /**
+     * @param now    Current time, in seconds
+     * @return Time counter to register a new beacon with.
+     */
+    static int getInitialTimeCounter(int now) {
+        // https://github.com/google/eddystone/blob/master/eddystone-eid/eid-computation.md#implementation-guidelines
+        return now & ~0xffff | 65280;
     }
 
     /**
-     * Atempts EID beacon registration.
+     * Atempts EID beacon registration. See {@link EIDRegistrar} for registering many beacons.
      * @param eidServer           EID server
      * @param publicKey           Advertiser public key
      * @param privateKey          Advertiser private key
@@ -109,8 +103,7 @@ public class EIDUtils {
         byte[] identityKey = computeIdentityKey(sharedSecret, registerParams.publicKey, publicKey);
 
         int now = (int) (System.currentTimeMillis() / 1000);
-        // https://github.com/google/eddystone/blob/master/eddystone-eid/eid-computation.md#implementation-guidelines
-        int timeCounter = now & ~0xffff | 65280;
+        int timeCounter = getInitialTimeCounter(now);
 
         // save the offset between current time and time counter so we can restore correctly
         int timeOffset = now - timeCounter;
@@ -0,0 +1,55 @@
+package com.uriio.beacons.eid;
+
+import com.uriio.beacons.Callback;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Runs the calls of a blocking {@link EIDResolver} on an executor. Wrapping a
+ * {@link LocalEIDResolver} gives an in-process resolver, useful for tests.
+ */
+public class ExecutorEIDResolver implements AsyncEIDResolver {
+    private final EIDResolver mResolver;
+    private final Executor mExecutor;
+
+    public ExecutorEIDResolver(EIDResolver resolver, Executor executor) {
+        mResolver = resolver;
+        mExecutor = executor;
+    }
+
+    @Override
+    public void queryRegistrationParams(final Callback<RegisterParams> callback) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                RegisterParams registerParams;
+                try {
+                    registerParams = mResolver.queryRegistrationParams();
+                } catch (RuntimeException e) {
+                    callback.onResult(null, e);
+                    return;
+                }
+                callback.onResult(registerParams, null);
+            }
+        });
+    }
+
+    @Override
+    public void registerBeacon(final byte[] beaconPublicKey, final byte rotationExponent,
+                               final int timeCounter, final byte[] ephemeralId,
+                               final Callback<Boolean> callback) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                boolean registered;
+                try {
+                    registered = mResolver.registerBeacon(beaconPublicKey, rotationExponent, timeCounter, ephemeralId);
+                } catch (RuntimeException e) {
+                    callback.onResult(null, e);
+                    return;
+                }
+                callback.onResult(registered, null);
+            }
+        });
+    }
+}
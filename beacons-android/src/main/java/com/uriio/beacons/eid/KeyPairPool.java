@@ -0,0 +1,109 @@
+package com.uriio.beacons.eid;
+
+import android.support.annotation.NonNull;
+
+import com.uriio.beacons.crypto.CryptoProviders;
+
+import org.whispersystems.curve25519.Curve25519KeyPair;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Small pool of pre-generated Curve25519 key pairs, refilled on a background thread, so that
+ * an EID registration doesn't have to wait for key generation.
+ */
+public class KeyPairPool {
+    /** Default number of key pairs kept ready. */
+    public static final int DEFAULT_CAPACITY = 2;
+
+    private static KeyPairPool _shared = null;
+    private static ExecutorService _executor = null;
+
+    private final ArrayDeque<Curve25519KeyPair> mKeyPairs;
+    private final int mCapacity;
+    private boolean mRefillPending = false;
+
+    public static synchronized KeyPairPool getShared() {
+        if (null == _shared) {
+            _shared = new KeyPairPool(DEFAULT_CAPACITY);
+        }
+        return _shared;
+    }
+
+    /**
+     * @param capacity    Number of key pairs to keep ready.
+     */
+    public KeyPairPool(int capacity) {
+        mCapacity = Math.max(1, capacity);
+        mKeyPairs = new ArrayDeque<>(mCapacity);
+    }
+
+    /**
+     * Starts generating key pairs in the background, if the pool isn't full.
+     */
+    public void prefill() {
+        synchronized (this) {
+            if (mRefillPending || mKeyPairs.size() >= mCapacity) return;
+            mRefillPending = true;
+        }
+
+        getExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                while (true) {
+                    synchronized (KeyPairPool.this) {
+                        if (mKeyPairs.size() >= mCapacity) {
+                            mRefillPending = false;
+                            return;
+                        }
+                    }
+
+                    Curve25519KeyPair keyPair = CryptoProviders.getCurve25519().generateKeyPair();
+
+                    synchronized (KeyPairPool.this) {
+                        mKeyPairs.add(keyPair);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Takes a key pair out of the pool, then refills it. If the pool is empty, a key pair is
+     * generated on the calling thread. Every key pair is handed out once.
+     * @return A new key pair.
+     */
+    @NonNull
+    public Curve25519KeyPair take() {
+        Curve25519KeyPair keyPair;
+        synchronized (this) {
+            keyPair = mKeyPairs.poll();
+        }
+
+        if (null == keyPair) {
+            keyPair = CryptoProviders.getCurve25519().generateKeyPair();
+        }
+
+        prefill();
+
+        return keyPair;
+    }
+
+    private static synchronized ExecutorService getExecutor() {
+        if (null == _executor) {
+            _executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(@NonNull Runnable r) {
+                    Thread thread = new Thread(r, "KeyPairPool");
+                    thread.setDaemon(true);
+                    thread.setPriority(Thread.MIN_PRIORITY);
+                    return thread;
+                }
+            });
+        }
+        return _executor;
+    }
+}
@@ -1,5 +1,7 @@
 package com.uriio.beacons.eid;
 
+import com.uriio.beacons.crypto.CryptoProviders;
+
 import org.whispersystems.curve25519.Curve25519;
 import org.whispersystems.curve25519.Curve25519KeyPair;
 
@@ -10,16 +12,39 @@ import java.security.GeneralSecurityException;
  * Created on 4/16/2016.
  */
 public class LocalEIDResolver implements EIDResolver {
+    /** Default number of rotation periods by which a beacon's clock may drift from ours. */
+    public static final int DEFAULT_CLOCK_SKEW = 2;
+
     private final Curve25519 mEC;
     private Curve25519KeyPair mKeyPair;
 
-    public LocalEIDResolver() {
-        mEC = Curve25519.getInstance(Curve25519.BEST);
+    /** Registered beacons and their indexed EIDs */
+    private final EIDIndex mIndex;
+
+    /**
+     * @param index    Index of registered beacons. Use a {@link MappedEIDIndex} to keep registered
+     *                 beacons resolvable across restarts without recomputing their EIDs.
+     */
+    public LocalEIDResolver(EIDIndex index) {
+        mEC = CryptoProviders.getCurve25519();
+        mIndex = index;
 
         // fixme - read keypair from storage
         mKeyPair = mEC.generateKeyPair();
     }
 
+    /**
+     * @param clockSkew    Number of rotation periods a beacon's clock is allowed to be ahead or
+     *                     behind ours, while its EIDs still resolve.
+     */
+    public LocalEIDResolver(int clockSkew) {
+        this(new MemoryEIDIndex(clockSkew));
+    }
+
+    public LocalEIDResolver() {
+        this(DEFAULT_CLOCK_SKEW);
+    }
+
     public Curve25519KeyPair generateKeyPair() {
         return mEC.generateKeyPair();
     }
@@ -66,14 +91,33 @@ public class LocalEIDResolver implements EIDResolver {
             if (eid[i] != ephemeralId[i]) return false;
         }
 
-        // registration checks passed
-
-        // FIXME: 4/16/2016 Register EID... somehow.... maybe set-up a local http server?
-        // ...add eid to a lookup db?! what should THAT return on lookup? the public key?
+        // registration checks passed, keep the beacon's upcoming EIDs indexed
+        int now = (int) (System.currentTimeMillis() / 1000);
+        try {
+            mIndex.add(identityKey, rotationExponent, timeCounter - now, beaconPublicKey, now);
+        } catch (GeneralSecurityException e) {
+            return false;
+        }
 
         return true;
     }
 
+    /**
+     * Resolves a sighted Ephemeral ID to the beacon that advertised it.
+     * @param ephemeralId    Advertised EID; only the first 8 bytes are used.
+     * @return The registered beacon's public key, or null if the EID is unknown.
+     */
+    public byte[] resolve(byte[] ephemeralId) {
+        try {
+            mIndex.refresh((int) (System.currentTimeMillis() / 1000));
+        } catch (GeneralSecurityException e) {
+            return null;
+        }
+
+        int beacon = mIndex.resolve(ephemeralId, 0);
+        return beacon < 0 ? null : mIndex.getBeaconId(beacon);
+    }
+
     byte[] getPublicKey() {
         return mKeyPair.getPublicKey();
     }
@@ -0,0 +1,415 @@
+package com.uriio.beacons.eid;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.GeneralSecurityException;
+
+/**
+ * EID index persisted in a memory-mapped file of fixed-size records, so a restarted resolver can
+ * answer lookups immediately instead of recomputing the EID window of every registered beacon.
+ * Rotations update the file in place, one epoch at a time.
+ * <p>
+ * File layout: a header, then one 64-byte record per beacon, then each beacon's window of indexed
+ * EIDs (8 bytes each), then an open-addressing hash table of 16-byte (EID, beacon + 1) entries.
+ * </p>
+ * A dirty flag in the header is set while an update is in progress. If the process dies in the
+ * middle of one, the windows and the table are rebuilt from the beacon records on the next open.
+ * Changes only reach the storage device on {@link #flush()}.
+ */
+public class MappedEIDIndex extends EIDIndex {
+    private static final int MAGIC = 0x45494458;    // EIDX
+    private static final int VERSION = 1;
+
+    private static final int HEADER_SIZE = 64;
+    private static final int H_MAGIC = 0;
+    private static final int H_VERSION = 4;
+    private static final int H_SKEW = 8;
+    private static final int H_BEACON_CAPACITY = 12;
+    private static final int H_BEACON_COUNT = 16;
+    private static final int H_TABLE_SIZE = 20;
+    private static final int H_ENTRY_COUNT = 24;
+    private static final int H_NEXT_REFRESH_TIME = 32;
+    private static final int H_DIRTY = 40;
+
+    private static final int BEACON_RECORD_SIZE = 64;
+    private static final int B_IDENTITY_KEY = 0;
+    private static final int B_BEACON_ID = 16;
+    private static final int B_CLOCK_OFFSET = 48;
+    private static final int B_CENTER_EPOCH = 52;
+    private static final int B_ROTATION_EXPONENT = 56;
+    private static final int B_FLAGS = 57;
+
+    private static final byte FLAG_ACTIVE = 0x01;
+    private static final byte FLAG_HAS_ID = 0x02;
+
+    private static final int TABLE_ENTRY_SIZE = 16;
+    private static final float MAX_LOAD_FACTOR = 0.6f;
+    private static final int INITIAL_BEACON_CAPACITY = 64;
+
+    private final File mFile;
+    private final int mSkew;
+
+    private MappedByteBuffer mBuffer;
+    private int mBeaconCapacity;
+    private int mTableSize;
+    private int mWindowOffset;
+    private int mTableOffset;
+
+    /**
+     * Opens an existing index file, or creates a new one.
+     * @param file    Index file
+     * @param skew    Number of rotation periods tolerated before and after a beacon's current
+     *                epoch. Must match the value the file was created with.
+     * @throws IOException if the file can't be mapped, or it was created with another skew.
+     */
+    public MappedEIDIndex(File file, int skew) throws IOException {
+        super(skew);
+        mFile = file;
+        mSkew = Math.max(0, skew);
+
+        if (file.length() >= HEADER_SIZE) {
+            map(file, file.length());
+            if (mBuffer.getInt(H_MAGIC) != MAGIC || mBuffer.getInt(H_VERSION) != VERSION) {
+                throw new IOException("Not an EID index file: " + file);
+            }
+            if (mBuffer.getInt(H_SKEW) != mSkew) {
+                throw new IOException("EID index file was created with a different clock skew");
+            }
+            readLayout();
+
+            if (0 != mBuffer.getInt(H_DIRTY)) {
+                recover();
+            }
+        } else {
+            create(file, INITIAL_BEACON_CAPACITY);
+        }
+    }
+
+    /**
+     * Rebuilds the windows and the lookup table of a file left dirty by an interrupted update.
+     */
+    private void recover() throws IOException {
+        int count = getBeaconCount();
+        for (int pos = 0; pos < count * getWindow(); pos++) {
+            writeWindowEid(pos, 0);
+        }
+        for (int i = 0; i < mTableSize; i++) {
+            mBuffer.putInt(mTableOffset + i * TABLE_ENTRY_SIZE + 8, 0);
+        }
+        mBuffer.putInt(H_ENTRY_COUNT, 0);
+
+        try {
+            reindex();
+        } catch (GeneralSecurityException e) {
+            throw new IOException("EID index recovery failed", e);
+        }
+
+        mBuffer.putInt(H_DIRTY, 0);
+        mBuffer.force();
+    }
+
+    /**
+     * Writes pending changes to the storage device.
+     */
+    public synchronized void flush() {
+        mBuffer.force();
+    }
+
+    @Override
+    public synchronized byte[] getBeaconId(int beacon) {
+        int record = beaconRecord(beacon);
+        if (0 == (mBuffer.get(record + B_FLAGS) & FLAG_HAS_ID)) return null;
+
+        byte[] beaconId = new byte[BEACON_ID_SIZE];
+        for (int i = 0; i < BEACON_ID_SIZE; i++) {
+            beaconId[i] = mBuffer.get(record + B_BEACON_ID + i);
+        }
+        return beaconId;
+    }
+
+    //region Storage
+
+    @Override
+    protected int getBeaconCount() {
+        return mBuffer.getInt(H_BEACON_COUNT);
+    }
+
+    @Override
+    protected int appendBeacon(byte[] identityKey, byte rotationExponent, int clockOffset, byte[] beaconId) {
+        int beacon = getBeaconCount();
+        if (beacon == mBeaconCapacity) {
+            resize(mBeaconCapacity << 1);
+        }
+
+        int record = beaconRecord(beacon);
+        for (int i = 0; i < 16; i++) {
+            mBuffer.put(record + B_IDENTITY_KEY + i, identityKey[i]);
+        }
+
+        byte flags = FLAG_ACTIVE;
+        if (null != beaconId) {
+            for (int i = 0; i < BEACON_ID_SIZE; i++) {
+                mBuffer.put(record + B_BEACON_ID + i, beaconId[i]);
+            }
+            flags |= FLAG_HAS_ID;
+        }
+
+        mBuffer.putInt(record + B_CLOCK_OFFSET, clockOffset);
+        mBuffer.put(record + B_ROTATION_EXPONENT, rotationExponent);
+        mBuffer.put(record + B_FLAGS, flags);
+
+        for (int i = 0; i < getWindow(); i++) {
+            writeWindowEid(beacon * getWindow() + i, 0);
+        }
+
+        mBuffer.putInt(H_BEACON_COUNT, beacon + 1);
+
+        return beacon;
+    }
+
+    @Override
+    protected void readIdentityKey(int beacon, byte[] out) {
+        int record = beaconRecord(beacon);
+        for (int i = 0; i < 16; i++) {
+            out[i] = mBuffer.get(record + B_IDENTITY_KEY + i);
+        }
+    }
+
+    @Override
+    protected byte readRotationExponent(int beacon) {
+        return mBuffer.get(beaconRecord(beacon) + B_ROTATION_EXPONENT);
+    }
+
+    @Override
+    protected int readClockOffset(int beacon) {
+        return mBuffer.getInt(beaconRecord(beacon) + B_CLOCK_OFFSET);
+    }
+
+    @Override
+    protected boolean isActive(int beacon) {
+        return 0 != (mBuffer.get(beaconRecord(beacon) + B_FLAGS) & FLAG_ACTIVE);
+    }
+
+    @Override
+    protected void setInactive(int beacon) {
+        int record = beaconRecord(beacon);
+        mBuffer.put(record + B_FLAGS, (byte) (mBuffer.get(record + B_FLAGS) & ~FLAG_ACTIVE));
+    }
+
+    @Override
+    protected int readCenterEpoch(int beacon) {
+        return mBuffer.getInt(beaconRecord(beacon) + B_CENTER_EPOCH);
+    }
+
+    @Override
+    protected void writeCenterEpoch(int beacon, int epoch) {
+        mBuffer.putInt(beaconRecord(beacon) + B_CENTER_EPOCH, epoch);
+    }
+
+    @Override
+    protected long readWindowEid(int pos) {
+        return mBuffer.getLong(mWindowOffset + pos * 8);
+    }
+
+    @Override
+    protected void writeWindowEid(int pos, long eid) {
+        mBuffer.putLong(mWindowOffset + pos * 8, eid);
+    }
+
+    @Override
+    protected int lookupGet(long eid) {
+        int mask = mTableSize - 1;
+        for (int i = slotOf(eid, mask); ; i = (i + 1) & mask) {
+            int entry = mTableOffset + i * TABLE_ENTRY_SIZE;
+            int value = mBuffer.getInt(entry + 8);
+            if (0 == value) return -1;
+            if (mBuffer.getLong(entry) == eid) return value - 1;
+        }
+    }
+
+    @Override
+    protected void lookupPut(long eid, int beacon) {
+        if (mBuffer.getInt(H_ENTRY_COUNT) + 1 > mTableSize * MAX_LOAD_FACTOR) {
+            resize(mBeaconCapacity << 1);
+        }
+
+        int mask = mTableSize - 1;
+        int i = slotOf(eid, mask);
+        for (; ; i = (i + 1) & mask) {
+            int entry = mTableOffset + i * TABLE_ENTRY_SIZE;
+            if (0 == mBuffer.getInt(entry + 8)) break;
+            if (mBuffer.getLong(entry) == eid) {
+                mBuffer.putInt(entry + 8, beacon + 1);
+                return;
+            }
+        }
+
+        int entry = mTableOffset + i * TABLE_ENTRY_SIZE;
+        mBuffer.putLong(entry, eid);
+        mBuffer.putInt(entry + 8, beacon + 1);
+        mBuffer.putInt(H_ENTRY_COUNT, mBuffer.getInt(H_ENTRY_COUNT) + 1);
+    }
+
+    @Override
+    protected void lookupRemove(long eid) {
+        int mask = mTableSize - 1;
+        int i = slotOf(eid, mask);
+        for (; ; i = (i + 1) & mask) {
+            int entry = mTableOffset + i * TABLE_ENTRY_SIZE;
+            if (0 == mBuffer.getInt(entry + 8)) return;
+            if (mBuffer.getLong(entry) == eid) break;
+        }
+
+        // shift back following entries of the same probe run into the freed slot
+        int free = i;
+        for (int j = (i + 1) & mask; ; j = (j + 1) & mask) {
+            int entry = mTableOffset + j * TABLE_ENTRY_SIZE;
+            int value = mBuffer.getInt(entry + 8);
+            if (0 == value) break;
+
+            long key = mBuffer.getLong(entry);
+            int home = slotOf(key, mask);
+            if (free <= j ? (home <= free || home > j) : (home <= free && home > j)) {
+                int freeEntry = mTableOffset + free * TABLE_ENTRY_SIZE;
+                mBuffer.putLong(freeEntry, key);
+                mBuffer.putInt(freeEntry + 8, value);
+                free = j;
+            }
+        }
+
+        mBuffer.putInt(mTableOffset + free * TABLE_ENTRY_SIZE + 8, 0);
+        mBuffer.putInt(H_ENTRY_COUNT, mBuffer.getInt(H_ENTRY_COUNT) - 1);
+    }
+
+    @Override
+    protected long readNextRefreshTime() {
+        return mBuffer.getLong(H_NEXT_REFRESH_TIME);
+    }
+
+    @Override
+    protected void writeNextRefreshTime(long time) {
+        mBuffer.putLong(H_NEXT_REFRESH_TIME, time);
+    }
+
+    @Override
+    protected void beginUpdate() {
+        mBuffer.putInt(H_DIRTY, 1);
+    }
+
+    @Override
+    protected void endUpdate() {
+        mBuffer.putInt(H_DIRTY, 0);
+    }
+
+    //endregion
+
+    private int beaconRecord(int beacon) {
+        return HEADER_SIZE + beacon * BEACON_RECORD_SIZE;
+    }
+
+    private static int slotOf(long key, int mask) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        return (int) key & mask;
+    }
+
+    private int tableSizeFor(int beaconCapacity) {
+        int size = 16;
+        while (size * MAX_LOAD_FACTOR < (long) beaconCapacity * getWindow()) {
+            size <<= 1;
+        }
+        return size;
+    }
+
+    private long fileSizeFor(int beaconCapacity, int tableSize) {
+        return HEADER_SIZE + (long) beaconCapacity * (BEACON_RECORD_SIZE + getWindow() * 8)
+                + (long) tableSize * TABLE_ENTRY_SIZE;
+    }
+
+    private void create(File file, int beaconCapacity) throws IOException {
+        int tableSize = tableSizeFor(beaconCapacity);
+        map(file, fileSizeFor(beaconCapacity, tableSize));
+
+        mBuffer.putInt(H_MAGIC, MAGIC);
+        mBuffer.putInt(H_VERSION, VERSION);
+        mBuffer.putInt(H_SKEW, mSkew);
+        mBuffer.putInt(H_BEACON_CAPACITY, beaconCapacity);
+        mBuffer.putInt(H_BEACON_COUNT, 0);
+        mBuffer.putInt(H_TABLE_SIZE, tableSize);
+        mBuffer.putInt(H_ENTRY_COUNT, 0);
+        mBuffer.putLong(H_NEXT_REFRESH_TIME, Long.MAX_VALUE);
+        mBuffer.putInt(H_DIRTY, 0);
+
+        readLayout();
+    }
+
+    private void map(File file, long size) throws IOException {
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("EID index too large");
+        }
+
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            randomAccessFile.setLength(size);
+            // the mapping stays valid after the channel is closed
+            mBuffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    private void readLayout() {
+        mBeaconCapacity = mBuffer.getInt(H_BEACON_CAPACITY);
+        mTableSize = mBuffer.getInt(H_TABLE_SIZE);
+        mWindowOffset = HEADER_SIZE + mBeaconCapacity * BEACON_RECORD_SIZE;
+        mTableOffset = mWindowOffset + mBeaconCapacity * getWindow() * 8;
+    }
+
+    /**
+     * Moves the index into a larger file. Beacon records and windows are copied over and the
+     * hash table is rebuilt from the windows, so no EID needs to be recomputed.
+     */
+    private void resize(int beaconCapacity) {
+        MappedByteBuffer old = mBuffer;
+        int oldWindowOffset = mWindowOffset;
+        int count = old.getInt(H_BEACON_COUNT);
+        int window = getWindow();
+
+        File tempFile = new File(mFile.getPath() + ".tmp");
+        try {
+            create(tempFile, beaconCapacity);
+        } catch (IOException e) {
+            throw new IllegalStateException("EID index resize failed", e);
+        }
+
+        for (int i = 0; i < count * BEACON_RECORD_SIZE; i++) {
+            mBuffer.put(HEADER_SIZE + i, old.get(HEADER_SIZE + i));
+        }
+        mBuffer.putInt(H_BEACON_COUNT, count);
+        mBuffer.putLong(H_NEXT_REFRESH_TIME, old.getLong(H_NEXT_REFRESH_TIME));
+        // resizing happens within an update, which is still in progress
+        mBuffer.putInt(H_DIRTY, old.getInt(H_DIRTY));
+
+        for (int beacon = 0; beacon < count; beacon++) {
+            boolean active = isActive(beacon);
+            for (int i = 0; i < window; i++) {
+                int pos = beacon * window + i;
+                long eid = old.getLong(oldWindowOffset + pos * 8);
+                writeWindowEid(pos, eid);
+
+                if (active && 0 != eid) {
+                    lookupPut(eid, beacon);
+                }
+            }
+        }
+
+        mBuffer.force();
+        if (!tempFile.renameTo(mFile)) {
+            throw new IllegalStateException("EID index resize failed, could not replace " + mFile);
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package com.uriio.beacons.eid;
+
+import com.uriio.beacons.LongIntMap;
+
+import java.util.Arrays;
+
+/**
+ * EID index kept on the heap, in parallel primitive arrays and a {@link LongIntMap}.
+ */
+public class MemoryEIDIndex extends EIDIndex {
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final LongIntMap mLookup;
+
+    private int mCount = 0;
+    private byte[][] mIdentityKeys = new byte[INITIAL_CAPACITY][];
+    private byte[][] mBeaconIds = new byte[INITIAL_CAPACITY][];
+    private byte[] mRotationExponents = new byte[INITIAL_CAPACITY];
+    private int[] mClockOffsets = new int[INITIAL_CAPACITY];
+    private int[] mCenterEpochs = new int[INITIAL_CAPACITY];
+    private boolean[] mActive = new boolean[INITIAL_CAPACITY];
+    private long[] mWindowEids;
+
+    private long mNextRefreshTime = Long.MAX_VALUE;
+
+    /**
+     * @param skew             Number of rotation periods tolerated before and after a beacon's current epoch.
+     * @param expectedBeacons  Number of beacons expected to be registered, used for initial sizing,
+     *                         and as the number of beacons whose temporary keys are memoized.
+     */
+    public MemoryEIDIndex(int skew, int expectedBeacons) {
+        super(skew);
+        setTemporaryKeyCapacity(Math.max(EIDEngine.DEFAULT_CAPACITY, expectedBeacons));
+        mLookup = new LongIntMap(expectedBeacons * getWindow());
+        mWindowEids = new long[INITIAL_CAPACITY * getWindow()];
+    }
+
+    public MemoryEIDIndex(int skew) {
+        this(skew, INITIAL_CAPACITY);
+    }
+
+    @Override
+    public synchronized byte[] getBeaconId(int beacon) {
+        return mBeaconIds[beacon];
+    }
+
+    @Override
+    protected int getBeaconCount() {
+        return mCount;
+    }
+
+    @Override
+    protected int appendBeacon(byte[] identityKey, byte rotationExponent, int clockOffset, byte[] beaconId) {
+        if (mCount == mActive.length) {
+            grow(mCount << 1);
+        }
+
+        int beacon = mCount++;
+        mIdentityKeys[beacon] = Arrays.copyOf(identityKey, 16);
+        mBeaconIds[beacon] = beaconId;
+        mRotationExponents[beacon] = rotationExponent;
+        mClockOffsets[beacon] = clockOffset;
+        mActive[beacon] = true;
+
+        return beacon;
+    }
+
+    @Override
+    protected void readIdentityKey(int beacon, byte[] out) {
+        System.arraycopy(mIdentityKeys[beacon], 0, out, 0, 16);
+    }
+
+    @Override
+    protected byte readRotationExponent(int beacon) {
+        return mRotationExponents[beacon];
+    }
+
+    @Override
+    protected int readClockOffset(int beacon) {
+        return mClockOffsets[beacon];
+    }
+
+    @Override
+    protected boolean isActive(int beacon) {
+        return mActive[beacon];
+    }
+
+    @Override
+    protected void setInactive(int beacon) {
+        mActive[beacon] = false;
+        mIdentityKeys[beacon] = null;
+    }
+
+    @Override
+    protected int readCenterEpoch(int beacon) {
+        return mCenterEpochs[beacon];
+    }
+
+    @Override
+    protected void writeCenterEpoch(int beacon, int epoch) {
+        mCenterEpochs[beacon] = epoch;
+    }
+
+    @Override
+    protected long readWindowEid(int pos) {
+        return mWindowEids[pos];
+    }
+
+    @Override
+    protected void writeWindowEid(int pos, long eid) {
+        mWindowEids[pos] = eid;
+    }
+
+    @Override
+    protected int lookupGet(long eid) {
+        return mLookup.get(eid);
+    }
+
+    @Override
+    protected void lookupPut(long eid, int beacon) {
+        mLookup.put(eid, beacon);
+    }
+
+    @Override
+    protected void lookupRemove(long eid) {
+        mLookup.remove(eid);
+    }
+
+    @Override
+    protected long readNextRefreshTime() {
+        return mNextRefreshTime;
+    }
+
+    @Override
+    protected void writeNextRefreshTime(long time) {
+        mNextRefreshTime = time;
+    }
+
+    private void grow(int capacity) {
+        mIdentityKeys = Arrays.copyOf(mIdentityKeys, capacity);
+        mBeaconIds = Arrays.copyOf(mBeaconIds, capacity);
+        mRotationExponents = Arrays.copyOf(mRotationExponents, capacity);
+        mClockOffsets = Arrays.copyOf(mClockOffsets, capacity);
+        mCenterEpochs = Arrays.copyOf(mCenterEpochs, capacity);
+        mActive = Arrays.copyOf(mActive, capacity);
+        mWindowEids = Arrays.copyOf(mWindowEids, capacity * getWindow());
+    }
+}
@@ -83,6 +83,7 @@ public abstract class Beacon implements Advertiser.SettingsProvider {
     private int mActiveState = ACTIVE_STATE_STOPPED;
 
     private boolean mConnectable = false;
+    private int mSchedulingWeight = 1;
     private int mErrorCode;
     private String mErrorDetsils;
 
@@ -365,6 +366,14 @@ public abstract class Beacon implements Advertiser.SettingsProvider {
         return mFlags;
     }
 
+    /**
+     * @return Relative share of advertising time when there are more enabled beacons than
+     * hardware advertisers, so beacons take turns.
+     */
+    public int getSchedulingWeight() {
+        return mSchedulingWeight;
+    }
+
     public int getAdvertiseState() {
         return mAdvertiseState;
     }
@@ -374,13 +383,35 @@ public abstract class Beacon implements Advertiser.SettingsProvider {
     }
 
     public Advertiser recreateAdvertiser(BleService bleService) {
+        return recreateAdvertiser(bleService, false);
+    }
+
+    /**
+     * @param recycle    True to rewrite the current advertiser's payload in place if possible,
+     *                   instead of creating a new advertiser.
+     */
+    public Advertiser recreateAdvertiser(BleService bleService, boolean recycle) {
         mErrorCode = 0;
         mErrorDetsils = null;
+
+        if (recycle && null != mAdvertiser && mAdvertiser.hasSettings(this)
+                && refreshAdvertiser(bleService, mAdvertiser)) {
+            return mAdvertiser;
+        }
+
         return (mAdvertiser = createAdvertiser(bleService));
     }
 
     protected abstract Advertiser createAdvertiser(BleService advertisersManager);
 
+    /**
+     * Updates the payload of an advertiser previously created by this beacon, with the same settings.
+     * @return True if the advertiser was updated, false if a new one must be created.
+     */
+    protected boolean refreshAdvertiser(BleService service, Advertiser advertiser) {
+        return false;
+    }
+
     public abstract int getKind();
 
     /**
@@ -535,6 +566,14 @@ public abstract class Beacon implements Advertiser.SettingsProvider {
             return this;
         }
 
+        /**
+         * Sets the beacon's share of advertising time when beacons take turns. Used from the next (re)start.
+         */
+        public BaseEditor<T> setSchedulingWeight(int weight) {
+            mSchedulingWeight = Math.max(1, weight);
+            return this;
+        }
+
         public BaseEditor<T> setName(String name) {
             if (null == name || !name.equals(mName)) {
                 mName = name;
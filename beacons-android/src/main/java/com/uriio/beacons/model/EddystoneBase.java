@@ -1,8 +1,7 @@
 package com.uriio.beacons.model;
 
 import com.uriio.beacons.ble.Advertiser;
-
-import java.security.SecureRandom;
+import com.uriio.beacons.crypto.CryptoProviders;
 
 /**
  * Eddystone beacons common model.
@@ -27,7 +26,7 @@ public abstract class EddystoneBase extends Beacon {
     private void init(byte[] lockKey) {
         if (null == lockKey) {
             lockKey = new byte[16];
-            new SecureRandom().nextBytes(lockKey);
+            CryptoProviders.getSecureRandom().nextBytes(lockKey);
         }
         mLockKey = lockKey;
     }
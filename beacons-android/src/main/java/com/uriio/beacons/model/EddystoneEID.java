@@ -6,7 +6,7 @@ import com.uriio.beacons.BleService;
 import com.uriio.beacons.Storage;
 import com.uriio.beacons.ble.Advertiser;
 import com.uriio.beacons.ble.EddystoneAdvertiser;
-import com.uriio.beacons.eid.EIDUtils;
+import com.uriio.beacons.eid.EIDCache;
 
 import java.security.GeneralSecurityException;
 
@@ -22,8 +22,14 @@ public class EddystoneEID extends EddystoneBase {
     private byte mRotationExponent;
     private int mClockOffset;
 
+    /** Upcoming EIDs, computed in the background so the rotation alarm only does a lookup. */
+    private EIDCache mEidCache;
+
     private long mScheduledRefreshTime = 0;
 
+    /** Current EID, rewritten on each rotation */
+    private final byte[] mFrameData = new byte[8];
+
     /**
      * Sets the absolute known boot time of the device. This should be called after retrieving
      * the EID server's actual current time, if possible.
@@ -96,19 +102,41 @@ public class EddystoneEID extends EddystoneBase {
 
     @Override
     protected Advertiser createAdvertiser(BleService service) {
+        return updateFrameData(service)
+                ? new EddystoneAdvertiser(this, EddystoneAdvertiser.FRAME_EID, mFrameData, 0, 8)
+                : null;
+    }
+
+    @Override
+    protected boolean refreshAdvertiser(BleService service, Advertiser advertiser) {
+        // on failure createAdvertiser() is called next and reports the error, so don't report it here
+        if (!updateFrameData(null)) {
+            return false;
+        }
+
+        ((EddystoneAdvertiser) advertiser).setFrameData(mFrameData, 0, 8);
+        return true;
+    }
+
+    /**
+     * Computes the current EID into the frame buffer, and when to refresh it.
+     * @return False if the EID could not be computed.
+     */
+    private boolean updateFrameData(BleService service) {
 //        epoch = -mClockOffset * 1000t;
 //        bootTime = currentTime - elapsedRealtime;
 //        clockMs = bootTime + elapsedRealtime - epoch;
 
         int clock = getEidClock();
-        byte[] data;
 
         try {
-            data = EIDUtils.computeEID(mIdentityKey, clock, mRotationExponent);
+            mEidCache.getEID(clock, mFrameData, 0);
         } catch (GeneralSecurityException e) {
-            service.broadcastError(this, BleService.EVENT_START_FAILED, "EID compute failed: " + e.getMessage());
+            if (null != service) {
+                service.broadcastError(this, BleService.EVENT_START_FAILED, "EID compute failed: " + e.getMessage());
+            }
 
-            return null;
+            return false;
         }
 
 //        int mExpireTime = ((clock >> mRotationExponent) + 1 << mRotationExponent) - mClockOffset;
@@ -120,7 +148,7 @@ public class EddystoneEID extends EddystoneBase {
         // epoch - bootTime + refreshClock; 1000L needed for Long result!
         mScheduledRefreshTime = 1000L * (refreshClock - mClockOffset) - BOOT_TIME;
 
-        return new EddystoneAdvertiser(this, EddystoneAdvertiser.FRAME_EID, data, 0, 8);
+        return true;
     }
 
     @Override
@@ -137,6 +165,7 @@ public class EddystoneEID extends EddystoneBase {
         mIdentityKey = identityKey;
         mRotationExponent = rotationExponent;
         mClockOffset = timeOffset;
+        mEidCache = new EIDCache(identityKey, rotationExponent);
     }
 
     public byte[] getIdentityKey() {
@@ -7,10 +7,11 @@ import android.os.SystemClock;
 
 import com.uriio.beacons.BleService;
 import com.uriio.beacons.Storage;
+import com.uriio.beacons.Util;
 import com.uriio.beacons.ble.Advertiser;
 import com.uriio.beacons.ble.EddystoneAdvertiser;
 
-import java.nio.ByteBuffer;
+import java.util.Arrays;
 
 /**
  * Wraps an Eddystone Telemetry beacon.
@@ -19,6 +20,8 @@ public class EddystoneTLM extends EddystoneBase {
     private static final int MIN_REFRESH_INTERVAL = 5000;
     private static final int MAX_REFRESH_INTERVAL = 300000;
 
+    private static final IntentFilter BATTERY_INTENT_FILTER = new IntentFilter(Intent.ACTION_BATTERY_CHANGED);
+
     private long mRefreshInterval;
     private long mScheduledRTC = 0;
 
@@ -29,6 +32,9 @@ public class EddystoneTLM extends EddystoneBase {
     /** Battery temperature, in tenths of Celsius */
     private int mBatteryTemperature = 0;
 
+    /** Telemetry frame data, rewritten on each refresh */
+    private final byte[] mFrameData = new byte[12];
+
     public EddystoneTLM(long refreshInterval, byte[] lockKey, @Advertiser.Mode int mode, @Advertiser.Power int txPowerLevel, String name) {
         super(lockKey, mode, txPowerLevel, name);
         init(refreshInterval);
@@ -86,30 +92,37 @@ public class EddystoneTLM extends EddystoneBase {
 
     @Override
     public Advertiser createAdvertiser(BleService service) {
-        byte[] data = new byte[12];
+        updateFrameData(service);
+        return new EddystoneAdvertiser(this, EddystoneAdvertiser.FRAME_TLM, mFrameData, 0, mFrameData.length);
+    }
+
+    @Override
+    protected boolean refreshAdvertiser(BleService service, Advertiser advertiser) {
+        updateFrameData(service);
+        ((EddystoneAdvertiser) advertiser).setFrameData(mFrameData, 0, mFrameData.length);
+        return true;
+    }
 
-        if (null != service) {
-            ByteBuffer buffer = ByteBuffer.wrap(data);
-            IntentFilter intentFilter = new IntentFilter(Intent.ACTION_BATTERY_CHANGED);
-            Intent stickyIntent = service.registerReceiver(null, intentFilter);
-            if (null != stickyIntent) {
-                mBatteryVoltage = (short) stickyIntent.getIntExtra(BatteryManager.EXTRA_VOLTAGE, 0);
-                buffer.putShort(mBatteryVoltage);
+    private void updateFrameData(BleService service) {
+        Arrays.fill(mFrameData, (byte) 0);
+        if (null == service) return;
 
-                mBatteryTemperature = stickyIntent.getIntExtra(BatteryManager.EXTRA_TEMPERATURE, 0);
+        Intent stickyIntent = service.registerReceiver(null, BATTERY_INTENT_FILTER);
+        if (null != stickyIntent) {
+            mBatteryVoltage = (short) stickyIntent.getIntExtra(BatteryManager.EXTRA_VOLTAGE, 0);
+            Util.putShort(mFrameData, 0, mBatteryVoltage);
 
-                // (int * 10) to fixed point 8.8
-                buffer.putShort((short) (mBatteryTemperature / 10 << 8 | mBatteryTemperature % 10 * 256 / 10));
+            mBatteryTemperature = stickyIntent.getIntExtra(BatteryManager.EXTRA_TEMPERATURE, 0);
 
-                mEstimatedPDUCount = (int) service.updateEstimatedPDUCount();
-                buffer.putInt(mEstimatedPDUCount);
+            // (int * 10) to fixed point 8.8
+            Util.putShort(mFrameData, 2, mBatteryTemperature / 10 << 8 | mBatteryTemperature % 10 * 256 / 10);
 
-                mPowerOnTime = (int) service.getPowerOnTime();
-                buffer.putInt(mPowerOnTime / 100);
-            }
-        }
+            mEstimatedPDUCount = (int) service.updateEstimatedPDUCount();
+            Util.putInt(mFrameData, 4, mEstimatedPDUCount);
 
-        return new EddystoneAdvertiser(this, EddystoneAdvertiser.FRAME_TLM, data, 0, data.length);
+            mPowerOnTime = (int) service.getPowerOnTime();
+            Util.putInt(mFrameData, 8, mPowerOnTime / 100);
+        }
     }
 
     public long getRefreshInterval() {
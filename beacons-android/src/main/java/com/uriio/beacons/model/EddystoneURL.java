@@ -5,7 +5,9 @@ import com.uriio.beacons.Storage;
 import com.uriio.beacons.ble.Advertiser;
 import com.uriio.beacons.ble.EddystoneAdvertiser;
 
-import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 
 /**
  * Created on 5/21/2016.
@@ -17,8 +19,37 @@ public class EddystoneURL extends EddystoneBase {
             ".com", ".org", ".edu", ".net", ".info", ".biz", ".gov",
     };
 
+    /** Largest URL frame payload: the scheme byte plus 17 bytes of encoded URL. */
+    public static final int MAX_ENCODED_LENGTH = 18;
+
+    /** Encoder result for URLs without a known scheme, or with characters that can't be sent. */
+    public static final int ENCODE_INVALID = -1;
+    /** Encoder result for URLs whose encoding doesn't fit the given length. */
+    public static final int ENCODE_OVERFLOW = -2;
+
+    /** URL status: the URL encoding fits in a frame. */
+    public static final int URL_ADVERTISABLE = 0;
+    /** URL status: only the shortest encoding, which the beacon then uses, fits in a frame. */
+    public static final int URL_ADVERTISABLE_SHORTEST_ONLY = 1;
+    /** URL status: no encoding fits in a frame. */
+    public static final int URL_TOO_LONG = 2;
+    /** URL status: no known scheme, or invalid characters. */
+    public static final int URL_INVALID = 3;
+
+    private static final int MAX_SCHEME_LENGTH = 12;
+    private static final int MAX_EXPANSION_LENGTH = 6;
+    private static final byte LITERAL = -1;
+
+    private static final ThreadLocal<ShortestEncoding> _shortestEncoding = new ThreadLocal<>();
+
+    private static final Trie SCHEME_TRIE = new Trie(SCHEMES);
+    private static final Trie EXPANSION_TRIE = new Trie(EXPANSIONS);
+
     private String mURL;
 
+    /** Encoded URL, rewritten when the advertiser is refreshed */
+    private final byte[] mFrameData = new byte[MAX_ENCODED_LENGTH];
+
     public static String decode(byte[] data) {
         return null == data ? null : decode(data, 0, data.length);
     }
@@ -30,78 +61,446 @@ public class EddystoneURL extends EddystoneBase {
      * @return Decoded URL string, or null on failure.
      */
     public static String decode(byte[] data, int offset, int length) {
-        if (null == data || offset + length > data.length) {
+        int decodedLength = getDecodedLength(data, offset, length);
+        if (decodedLength < 0) {
             return null;
         }
 
-        byte schemeByte = data[offset++];
-        if (schemeByte < 0 || schemeByte > 3) {
-            return null;
+        char[] chars = new char[decodedLength];
+        decodeValid(data, offset, length, chars, 0);
+        return new String(chars);
+    }
+
+    /**
+     * Validates an URL frame and computes the length of the decoded URL, without decoding it.
+     * @param data   Raw data bytes
+     * @param offset Array offset
+     * @param length Data length to use.
+     * @return Decoded URL length, or -1 if the data is not a valid encoded URL.
+     */
+    public static int getDecodedLength(byte[] data, int offset, int length) {
+        if (null == data || length < 1 || offset < 0 || offset + length > data.length) {
+            return -1;
         }
 
-        StringBuilder builder = new StringBuilder(SCHEMES[schemeByte]);
+        byte schemeByte = data[offset];
+        if (schemeByte < 0 || schemeByte >= SCHEMES.length) {
+            return -1;
+        }
 
-        // we've read the schema byte, so URL payload length is one less
-        while (--length > 0) {
-            byte val = data[offset++];
-            if (val < 0 || 0x7f == val) return null;
+        int decodedLength = SCHEMES[schemeByte].length();
+        for (int i = offset + 1, end = offset + length; i < end; i++) {
+            byte val = data[i];
+            if (val < 0 || 0x7f == val) return -1;
             if (val > 32) {
-                builder.append((char) val);
+                decodedLength++;
             } else {
-                if (val >= EXPANSIONS.length) return null;
-                builder.append(EXPANSIONS[val]);
+                if (val >= EXPANSIONS.length) return -1;
+                decodedLength += EXPANSIONS[val].length();
             }
         }
 
-        return builder.toString();
+        return decodedLength;
+    }
+
+    /**
+     * Decodes an URL into a char buffer. Use {@link #getDecodedLength(byte[], int, int)} to
+     * find out how much room is needed.
+     * @param data         Raw data bytes
+     * @param offset       Array offset
+     * @param length       Data length to use.
+     * @param out          Output buffer
+     * @param outOffset    Offset in the output buffer
+     * @return Decoded URL length, or -1 if the data is invalid or the URL doesn't fit.
+     */
+    public static int decode(byte[] data, int offset, int length, char[] out, int outOffset) {
+        int decodedLength = getDecodedLength(data, offset, length);
+        if (decodedLength < 0 || outOffset + decodedLength > out.length) {
+            return -1;
+        }
+
+        decodeValid(data, offset, length, out, outOffset);
+        return decodedLength;
+    }
+
+    /**
+     * Decodes an URL, appending it to the given output. Nothing is appended if the data is invalid.
+     * @param data   Raw data bytes
+     * @param offset Array offset
+     * @param length Data length to use.
+     * @param out    Output, for instance a reused StringBuilder
+     * @return True if the data was a valid encoded URL.
+     */
+    public static boolean decode(byte[] data, int offset, int length, Appendable out) throws IOException {
+        if (getDecodedLength(data, offset, length) < 0) {
+            return false;
+        }
+
+        out.append(SCHEMES[data[offset]]);
+        for (int i = offset + 1, end = offset + length; i < end; i++) {
+            byte val = data[i];
+            if (val > 32) {
+                out.append((char) val);
+            } else {
+                out.append(EXPANSIONS[val]);
+            }
+        }
+        return true;
     }
 
+    private static void decodeValid(byte[] data, int offset, int length, char[] out, int outOffset) {
+        String scheme = SCHEMES[data[offset]];
+        scheme.getChars(0, scheme.length(), out, outOffset);
+        outOffset += scheme.length();
+
+        for (int i = offset + 1, end = offset + length; i < end; i++) {
+            byte val = data[i];
+            if (val > 32) {
+                out[outOffset++] = (char) val;
+            } else {
+                String expansion = EXPANSIONS[val];
+                expansion.getChars(0, expansion.length(), out, outOffset);
+                outOffset += expansion.length();
+            }
+        }
+    }
+
+    /**
+     * Reusable view of a decoded URL. Decoding into it only allocates when a longer URL than
+     * any before needs more room.
+     */
+    public static class DecodedURL implements CharSequence {
+        private char[] mChars = new char[32];
+        private int mLength = 0;
+
+        /**
+         * Decodes an URL into this view. The view is emptied if the data is invalid.
+         * @return True if the data was a valid encoded URL.
+         */
+        public boolean set(byte[] data, int offset, int length) {
+            int decodedLength = getDecodedLength(data, offset, length);
+            if (decodedLength < 0) {
+                mLength = 0;
+                return false;
+            }
+
+            if (decodedLength > mChars.length) {
+                mChars = new char[Math.max(decodedLength, 2 * mChars.length)];
+            }
+
+            decodeValid(data, offset, length, mChars, 0);
+            mLength = decodedLength;
+            return true;
+        }
+
+        @Override
+        public int length() {
+            return mLength;
+        }
+
+        @Override
+        public char charAt(int index) {
+            if (index < 0 || index >= mLength) {
+                throw new IndexOutOfBoundsException("Index " + index + ", length " + mLength);
+            }
+            return mChars[index];
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            if (start < 0 || end > mLength || start > end) {
+                throw new IndexOutOfBoundsException("Range [" + start + ", " + end + "), length " + mLength);
+            }
+            return new String(mChars, start, end - start);
+        }
+
+        @Override
+        public String toString() {
+            return new String(mChars, 0, mLength);
+        }
+    }
+
+    /**
+     * Encodes an URL. The result may be too long to be advertised.
+     * @param url    URL to encode
+     * @return Encoded URL, or null if the URL has no known scheme or contains invalid characters.
+     */
     public static byte[] encode(String url) {
         if (null == url) {
             return null;
         }
 
-        if (url.length() == 0) {
-            return new byte[0];
+        // the scheme takes at least 7 chars and everything else at least one char per byte
+        byte[] data = new byte[url.length()];
+        int size = encode(url, data, 0, data.length);
+
+        if (size < 0) return null;
+        return size == data.length ? data : Arrays.copyOf(data, size);
+    }
+
+    /**
+     * Encodes an URL in one pass into a buffer. Encoding stops as soon as the output would
+     * exceed the given length, in which case the rest of the URL is not validated.
+     * @param url          URL to encode
+     * @param out          Output buffer
+     * @param offset       Offset in the output buffer
+     * @param maxLength    Maximum encoded length; use {@link #MAX_ENCODED_LENGTH} for advertising.
+     * @return Encoded length, {@link #ENCODE_INVALID} or {@link #ENCODE_OVERFLOW}.
+     */
+    public static int encode(CharSequence url, byte[] out, int offset, int maxLength) {
+        int length = url.length();
+        if (0 == length) {
+            return 0;
+        }
+
+        int match = SCHEME_TRIE.match(url, 0);
+        if (0 == match) {
+            return ENCODE_INVALID;
+        }
+        if (maxLength < 1) {
+            return ENCODE_OVERFLOW;
+        }
+
+        out[offset] = (byte) match;
+        int size = 1;
+
+        int pos = match >>> 8;
+        while (pos < length) {
+            // the longest expansion wins, same as looking them up in table order
+            byte code;
+            match = EXPANSION_TRIE.match(url, pos);
+            if (0 != match) {
+                code = (byte) match;
+                pos += match >>> 8;
+            } else {
+                char c = url.charAt(pos++);
+                if (c <= 32 || c >= 127) {
+                    return ENCODE_INVALID;
+                }
+                code = (byte) c;
+            }
+
+            if (size == maxLength) {
+                return ENCODE_OVERFLOW;
+            }
+            out[offset + size++] = code;
         }
 
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(18);
+        return size;
+    }
 
-        int pos = 0;
-        for (int schemeCode = 0; schemeCode < SCHEMES.length; ++schemeCode) {
-            String scheme = SCHEMES[schemeCode];
-            if (url.startsWith(scheme)) {
-                baos.write(schemeCode);
-                pos = scheme.length();
-                break;
+    /**
+     * Encodes an URL at the buffer's position, which is advanced only on success.
+     * @param url    URL to encode
+     * @param out    Output buffer. At most {@link #MAX_ENCODED_LENGTH} bytes are written.
+     * @return Encoded length, {@link #ENCODE_INVALID} or {@link #ENCODE_OVERFLOW}.
+     */
+    public static int encode(CharSequence url, ByteBuffer out) {
+        int maxLength = Math.min(out.remaining(), MAX_ENCODED_LENGTH);
+        int size;
+
+        if (out.hasArray()) {
+            size = encode(url, out.array(), out.arrayOffset() + out.position(), maxLength);
+            if (size > 0) {
+                out.position(out.position() + size);
+            }
+        } else {
+            byte[] data = new byte[maxLength];
+            size = encode(url, data, 0, maxLength);
+            if (size > 0) {
+                out.put(data, 0, size);
             }
         }
 
-        if (pos <= 0) return null;
+        return size;
+    }
+
+    /**
+     * Encodes an URL into the shortest possible frame, choosing among all matching schemes and
+     * expansions by dynamic programming. The greedy {@link #encode(CharSequence, byte[], int, int)}
+     * always takes the longest scheme, which can be a byte longer (http://www.info/ encodes best
+     * as http:// www .info/). Runs in linear time; URLs too long to possibly fit are rejected
+     * before any work is done.
+     * @param url          URL to encode
+     * @param out          Output buffer
+     * @param offset       Offset in the output buffer
+     * @param maxLength    Maximum encoded length; use {@link #MAX_ENCODED_LENGTH} for advertising.
+     * @return Encoded length, {@link #ENCODE_INVALID} or {@link #ENCODE_OVERFLOW}.
+     */
+    public static int encodeShortest(CharSequence url, byte[] out, int offset, int maxLength) {
+        int length = url.length();
+        if (0 == length) {
+            return 0;
+        }
+
+        // every byte after the scheme encodes at most MAX_EXPANSION_LENGTH chars
+        if (length > MAX_SCHEME_LENGTH + (long) (maxLength - 1) * MAX_EXPANSION_LENGTH) {
+            return 0 == SCHEME_TRIE.match(url, 0) ? ENCODE_INVALID : ENCODE_OVERFLOW;
+        }
+
+        ShortestEncoding scratch = _shortestEncoding.get();
+        if (null == scratch || scratch.costs.length <= length) {
+            scratch = new ShortestEncoding(Math.max(length + 1, 2 * MAX_SCHEME_LENGTH));
+            _shortestEncoding.set(scratch);
+        }
+        int[] costs = scratch.costs;
+        byte[] choices = scratch.choices;
+
+        // costs[pos] is the shortest encoded size of the URL's suffix starting at pos
+        costs[length] = 0;
+        for (int pos = length - 1; pos > 0; pos--) {
+            int best = Integer.MAX_VALUE;
+            byte choice = LITERAL;
+
+            char c = url.charAt(pos);
+            if (c > 32 && c < 127 && costs[pos + 1] != Integer.MAX_VALUE) {
+                best = costs[pos + 1] + 1;
+            }
 
-        while (pos < url.length()) {
-            // longer expansions start from index 0, don't use a reversed loop
-            boolean foundExpansion = false;
-            for (int expansionCode = 0; expansionCode < EXPANSIONS.length; ++expansionCode) {
-                String expansion = EXPANSIONS[expansionCode];
-                if (url.startsWith(expansion, pos)) {
-                    baos.write(expansionCode);
-                    pos += expansion.length();
-                    foundExpansion = true;
-                    // need to break instead of looking for NEXT expansion, so we start from first
-                    break;
+            // on ties prefer expansions over literals, and longer expansions, like the greedy encoder
+            for (int i = pos, node = 0; i < length; i++) {
+                node = EXPANSION_TRIE.next(node, url.charAt(i));
+                if (0 == node) break;
+
+                int code = EXPANSION_TRIE.code(node);
+                if (code >= 0 && costs[i + 1] != Integer.MAX_VALUE && costs[i + 1] + 1 <= best) {
+                    best = costs[i + 1] + 1;
+                    choice = (byte) code;
                 }
             }
-            if (!foundExpansion) {
-                char charAt = url.charAt(pos++);
-                if (charAt <= 32 || charAt >= 127) {
-                    return null;
+
+            costs[pos] = best;
+            choices[pos] = choice;
+        }
+
+        int bestScheme = -1;
+        int bestCost = Integer.MAX_VALUE;
+        for (int i = 0, node = 0; i < length; i++) {
+            node = SCHEME_TRIE.next(node, url.charAt(i));
+            if (0 == node) break;
+
+            int code = SCHEME_TRIE.code(node);
+            if (code >= 0 && costs[i + 1] != Integer.MAX_VALUE && costs[i + 1] + 1 <= bestCost) {
+                bestCost = costs[i + 1] + 1;
+                bestScheme = code;
+            }
+        }
+
+        if (bestScheme < 0) {
+            return ENCODE_INVALID;
+        }
+        if (bestCost > maxLength) {
+            return ENCODE_OVERFLOW;
+        }
+
+        out[offset] = (byte) bestScheme;
+        int size = 1;
+        for (int pos = SCHEMES[bestScheme].length(); pos < length; ) {
+            byte choice = choices[pos];
+            if (LITERAL == choice) {
+                out[offset + size++] = (byte) url.charAt(pos++);
+            } else {
+                out[offset + size++] = choice;
+                pos += EXPANSIONS[choice].length();
+            }
+        }
+
+        return size;
+    }
+
+    /**
+     * Checks if an URL can be advertised.
+     * @param url    URL to check
+     * @return One of {@link #URL_ADVERTISABLE}, {@link #URL_ADVERTISABLE_SHORTEST_ONLY},
+     * {@link #URL_TOO_LONG} or {@link #URL_INVALID}.
+     */
+    public static int checkAdvertisable(CharSequence url) {
+        byte[] data = new byte[MAX_ENCODED_LENGTH];
+
+        int size = encode(url, data, 0, MAX_ENCODED_LENGTH);
+        if (size >= 0) return URL_ADVERTISABLE;
+        if (ENCODE_INVALID == size) return URL_INVALID;
+
+        size = encodeShortest(url, data, 0, MAX_ENCODED_LENGTH);
+        if (size >= 0) return URL_ADVERTISABLE_SHORTEST_ONLY;
+        return ENCODE_INVALID == size ? URL_INVALID : URL_TOO_LONG;
+    }
+
+    private static class ShortestEncoding {
+        final int[] costs;
+        final byte[] choices;
+
+        ShortestEncoding(int size) {
+            costs = new int[size];
+            choices = new byte[size];
+        }
+    }
+
+    /**
+     * Prefix tree over a table of ASCII strings, where each string's code is its table index.
+     * Transitions live in a flat array indexed by (node * 128 + char); node 0 is the root.
+     */
+    private static class Trie {
+        private final int[] mNext;
+        private final byte[] mCodes;
+
+        Trie(String[] table) {
+            int maxNodes = 1;
+            for (String str : table) {
+                maxNodes += str.length();
+            }
+
+            mNext = new int[maxNodes * 128];
+            mCodes = new byte[maxNodes];
+            Arrays.fill(mCodes, (byte) -1);
+
+            int nodes = 1;
+            for (int code = 0; code < table.length; code++) {
+                String str = table[code];
+                int node = 0;
+                for (int i = 0; i < str.length(); i++) {
+                    int transition = node * 128 + str.charAt(i);
+                    if (0 == mNext[transition]) {
+                        mNext[transition] = nodes++;
+                    }
+                    node = mNext[transition];
                 }
-                baos.write(charAt);
+                mCodes[node] = (byte) code;
             }
         }
 
-        return baos.toByteArray();
+        /**
+         * @return Child node, or 0 if there is none.
+         */
+        int next(int node, char c) {
+            return c < 128 ? mNext[node * 128 + c] : 0;
+        }
+
+        /**
+         * @return Code of the string ending at this node, or -1.
+         */
+        int code(int node) {
+            return mCodes[node];
+        }
+
+        /**
+         * Finds the longest table string starting at a position.
+         * @return (length << 8 | code), or 0 if no string matches.
+         */
+        int match(CharSequence str, int pos) {
+            int result = 0;
+            int node = 0;
+            for (int i = pos, length = str.length(); i < length; i++) {
+                node = next(node, str.charAt(i));
+                if (0 == node) break;
+
+                int code = mCodes[node];
+                if (code >= 0) {
+                    result = (i + 1 - pos) << 8 | code;
+                }
+            }
+            return result;
+        }
     }
 
     public EddystoneURL(String url, byte[] lockKey, @Advertiser.Mode int mode,
@@ -149,15 +548,36 @@ public class EddystoneURL extends EddystoneBase {
 
     @Override
     public Advertiser createAdvertiser(BleService service) {
-        // a null URL or a empty URL is allowed
-        byte[] data = null == mURL ? new byte[0] : encode(mURL);
-
-        if (null == data || data.length > 18) {
+        int size = encodeFrameData();
+        if (size < 0) {
             // payload can't be advertised (too large, invalid scheme or other fatal error)
             return null;
         }
 
-        return new EddystoneAdvertiser(this, EddystoneAdvertiser.FRAME_URL, data, 0, data.length);
+        return new EddystoneAdvertiser(this, EddystoneAdvertiser.FRAME_URL, mFrameData, 0, size);
+    }
+
+    @Override
+    protected boolean refreshAdvertiser(BleService service, Advertiser advertiser) {
+        int size = encodeFrameData();
+        if (size < 0) return false;
+
+        ((EddystoneAdvertiser) advertiser).setFrameData(mFrameData, 0, size);
+        return true;
+    }
+
+    /**
+     * Encodes the URL into the frame buffer.
+     * @return The encoded size, or a negative error.
+     */
+    private int encodeFrameData() {
+        // a null URL or a empty URL is allowed
+        int size = null == mURL ? 0 : encode(mURL, mFrameData, 0, MAX_ENCODED_LENGTH);
+        if (ENCODE_OVERFLOW == size) {
+            // some URLs only fit when choosing a shorter scheme than the greedy encoder does
+            size = encodeShortest(mURL, mFrameData, 0, MAX_ENCODED_LENGTH);
+        }
+        return size;
     }
 
     @Override
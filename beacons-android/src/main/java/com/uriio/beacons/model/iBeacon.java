@@ -59,7 +59,7 @@ public class iBeacon extends Beacon {
     }
 
     public String getUuid() {
-        return Util.binToUUID(mUuid).toString();
+        return Util.appendUUID(new StringBuilder(36), Util.getLong(mUuid, 0), Util.getLong(mUuid, 8)).toString();
     }
 
     public byte[] getUuidRaw() {
@@ -0,0 +1,68 @@
+package com.uriio.beacons.scan;
+
+import com.uriio.beacons.Util;
+import com.uriio.beacons.ble.iBeaconAdvertiser;
+import com.uriio.beacons.eid.EIDIndex;
+import com.uriio.beacons.model.EddystoneUID;
+import com.uriio.beacons.model.iBeacon;
+
+/**
+ * 64-bit hashes of beacon identities, identical whether the identity comes from a scanned frame
+ * or from a beacon model, so sketches built on different devices can be merged.
+ */
+public class BeaconIdentity {
+    /**
+     * @param kind    Frame type, as defined by {@link BeaconParser}
+     * @param id0     First 8 bytes of the identity, see {@link BeaconParser#getId0()}
+     * @param id1     Next 8 bytes of the identity, see {@link BeaconParser#getId1()}
+     * @param id2     Rest of the identity, see {@link BeaconParser#getId2()}
+     * @return A well-mixed hash of the identity.
+     */
+    public static long hash(int kind, long id0, long id1, int id2) {
+        long h = mix(id0 ^ kind * 0x9E3779B97F4A7C15L);
+        h = mix(h ^ id1);
+        return mix(h ^ (id2 & 0xffffffffL));
+    }
+
+    /**
+     * @return Hash of the parsed frame's identity. Check {@link BeaconParser#hasIdentity()} first.
+     */
+    public static long hash(BeaconParser parser) {
+        return hash(parser.getFrameType(), parser.getId0(), parser.getId1(), parser.getId2());
+    }
+
+    public static long hash(EddystoneUID beacon) {
+        byte[] namespaceInstance = beacon.getNamespaceInstance();
+        return hash(BeaconParser.FRAME_EDDYSTONE_UID,
+                Util.getLong(namespaceInstance, 0), Util.getLong(namespaceInstance, 8), 0);
+    }
+
+    public static long hash(iBeacon beacon) {
+        byte[] uuid = beacon.getUuidRaw();
+        // same frame as the advertiser sends, which uses AltBeacon for anything but the Apple flag
+        int kind = iBeaconAdvertiser.FLAG_APPLE == beacon.getFlags()
+                ? BeaconParser.FRAME_IBEACON : BeaconParser.FRAME_ALTBEACON;
+        return hash(kind, Util.getLong(uuid, 0), Util.getLong(uuid, 8),
+                (beacon.getMajor() & 0xffff) << 16 | beacon.getMinor() & 0xffff);
+    }
+
+    /**
+     * @param eid       Ephemeral ID bytes
+     * @param offset    Offset of the 8-byte EID
+     */
+    public static long hashEID(byte[] eid, int offset) {
+        return hash(BeaconParser.FRAME_EDDYSTONE_EID, EIDIndex.toKey(eid, offset), 0, 0);
+    }
+
+    /**
+     * 64-bit finalizer from MurmurHash3.
+     */
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,349 @@
+package com.uriio.beacons.scan;
+
+import com.uriio.beacons.Util;
+import com.uriio.beacons.ble.EddystoneAdvertiser;
+import com.uriio.beacons.ble.iBeaconAdvertiser;
+import com.uriio.beacons.eid.EIDIndex;
+import com.uriio.beacons.model.EddystoneURL;
+
+/**
+ * Flyweight parser of raw BLE scan records. It walks the AD structures in place and exposes the
+ * first Eddystone, iBeacon or AltBeacon frame found through typed getters that read the record
+ * bytes directly. A parser is meant to be reused for every record, and doesn't allocate while
+ * parsing or reading fields, so keep the record unmodified while the frame is read.
+ * Not thread-safe.
+ */
+public class BeaconParser {
+    public static final int FRAME_NONE = 0;
+    public static final int FRAME_EDDYSTONE_UID = 1;
+    public static final int FRAME_EDDYSTONE_URL = 2;
+    public static final int FRAME_EDDYSTONE_TLM = 3;
+    public static final int FRAME_EDDYSTONE_EID = 4;
+    public static final int FRAME_IBEACON = 5;
+    public static final int FRAME_ALTBEACON = 6;
+
+    private static final int TYPE_SERVICE_DATA_16_BIT = 0x16;
+    private static final int TYPE_MANUFACTURER_DATA = 0xFF;
+
+    // minimum frame sizes, counted from the Eddystone frame type byte or the iBeacon indicator
+    private static final int UID_FRAME_SIZE = 18;
+    private static final int URL_MIN_FRAME_SIZE = 3;
+    private static final int TLM_FRAME_SIZE = 14;
+    private static final int EID_FRAME_SIZE = 10;
+    private static final int IBEACON_FRAME_SIZE = 23;
+
+    private byte[] mRecord = null;
+    private int mFrameType = FRAME_NONE;
+    /** Offset of the Eddystone frame type, or of the iBeacon indicator */
+    private int mOffset = 0;
+    private int mLength = 0;
+
+    private final EddystoneURL.DecodedURL mUrl = new EddystoneURL.DecodedURL();
+    private boolean mUrlDecoded = false;
+
+    /**
+     * Parses a whole scan record.
+     * @return The frame type, or {@link #FRAME_NONE} if no beacon frame was found.
+     */
+    public int parse(byte[] record) {
+        return parse(record, 0, record.length);
+    }
+
+    /**
+     * Parses a scan record, stopping at the first beacon frame.
+     * @param record    Raw scan record, as a sequence of AD structures
+     * @param offset    Record offset
+     * @param length    Record length; the record also ends at the first zero-length structure
+     * @return The frame type, or {@link #FRAME_NONE} if no beacon frame was found.
+     */
+    public int parse(byte[] record, int offset, int length) {
+        mRecord = record;
+        mFrameType = FRAME_NONE;
+        mUrlDecoded = false;
+
+        int end = offset + length;
+        while (offset < end) {
+            int fieldLength = record[offset] & 0xff;
+            if (0 == fieldLength || offset + 1 + fieldLength > end) {
+                // end of significant data, or a malformed record
+                break;
+            }
+
+            int type = record[offset + 1] & 0xff;
+            int dataOffset = offset + 2;
+            int dataLength = fieldLength - 1;
+
+            if (TYPE_SERVICE_DATA_16_BIT == type) {
+                parseServiceData(record, dataOffset, dataLength);
+            } else if (TYPE_MANUFACTURER_DATA == type) {
+                parseManufacturerData(record, dataOffset, dataLength);
+            }
+
+            if (FRAME_NONE != mFrameType) break;
+
+            offset += 1 + fieldLength;
+        }
+
+        return mFrameType;
+    }
+
+    private void parseServiceData(byte[] record, int offset, int length) {
+        if (length < 3 || EddystoneAdvertiser.EDDYSTONE_SERVICE_ID != readShortLE(record, offset)) {
+            return;
+        }
+
+        int frameOffset = offset + 2;
+        int frameLength = length - 2;
+        int frameType;
+
+        switch (record[frameOffset]) {
+            case EddystoneAdvertiser.FRAME_UID:
+                if (frameLength < UID_FRAME_SIZE) return;
+                frameType = FRAME_EDDYSTONE_UID;
+                break;
+            case EddystoneAdvertiser.FRAME_URL:
+                if (frameLength < URL_MIN_FRAME_SIZE) return;
+                frameType = FRAME_EDDYSTONE_URL;
+                break;
+            case EddystoneAdvertiser.FRAME_TLM:
+                // only unencrypted TLM (version 0) has plain fields
+                if (frameLength < TLM_FRAME_SIZE || 0 != record[frameOffset + 1]) return;
+                frameType = FRAME_EDDYSTONE_TLM;
+                break;
+            case EddystoneAdvertiser.FRAME_EID:
+                if (frameLength < EID_FRAME_SIZE) return;
+                frameType = FRAME_EDDYSTONE_EID;
+                break;
+            default:
+                return;
+        }
+
+        setFrame(frameType, frameOffset, frameLength);
+    }
+
+    private void parseManufacturerData(byte[] record, int offset, int length) {
+        if (length < 2 + IBEACON_FRAME_SIZE) return;
+
+        int companyId = readShortLE(record, offset);
+        int indicator = (record[offset + 2] & 0xff) << 8 | record[offset + 3] & 0xff;
+
+        if (iBeaconAdvertiser.IBEACON_INDICATOR == indicator
+                && iBeaconAdvertiser.COMPANY_ID_APPLE == companyId) {
+            setFrame(FRAME_IBEACON, offset + 2, length - 2);
+        } else if (iBeaconAdvertiser.ALTBEACON_INDICATOR == indicator) {
+            // AltBeacon allows any company ID
+            setFrame(FRAME_ALTBEACON, offset + 2, length - 2);
+        }
+    }
+
+    private void setFrame(int frameType, int offset, int length) {
+        mFrameType = frameType;
+        mOffset = offset;
+        mLength = length;
+    }
+
+    /**
+     * @return Type of the last parsed frame, or {@link #FRAME_NONE}.
+     */
+    public int getFrameType() {
+        return mFrameType;
+    }
+
+    public boolean isEddystone() {
+        return mFrameType >= FRAME_EDDYSTONE_UID && mFrameType <= FRAME_EDDYSTONE_EID;
+    }
+
+    /**
+     * @return The parsed record.
+     */
+    public byte[] getRecord() {
+        return mRecord;
+    }
+
+    /**
+     * @return Offset of the frame in the record: the Eddystone frame type byte, or the
+     * iBeacon/AltBeacon indicator.
+     */
+    public int getFrameOffset() {
+        return mOffset;
+    }
+
+    public int getFrameLength() {
+        return mLength;
+    }
+
+    /**
+     * @return Calibrated TX power, in dBm: at 0 meters for Eddystone UID, URL and EID frames,
+     * at 1 meter for iBeacon and AltBeacon. Zero for TLM frames, which don't include it.
+     */
+    public int getTxPower() {
+        switch (mFrameType) {
+            case FRAME_EDDYSTONE_UID:
+            case FRAME_EDDYSTONE_URL:
+            case FRAME_EDDYSTONE_EID:
+                return mRecord[mOffset + 1];
+            case FRAME_IBEACON:
+            case FRAME_ALTBEACON:
+                return mRecord[mOffset + 22];
+        }
+        return 0;
+    }
+
+    //region Identity
+    /**
+     * @return True if the frame identifies a beacon: Eddystone-UID, Eddystone-EID, iBeacon or AltBeacon.
+     */
+    public boolean hasIdentity() {
+        return FRAME_EDDYSTONE_UID == mFrameType || FRAME_EDDYSTONE_EID == mFrameType
+                || FRAME_IBEACON == mFrameType || FRAME_ALTBEACON == mFrameType;
+    }
+
+    /**
+     * @return First 8 bytes of the identity: namespace start, proximity UUID start, or EID.
+     */
+    public long getId0() {
+        return FRAME_EDDYSTONE_EID == mFrameType ? getEID() : Util.getLong(mRecord, mOffset + 2);
+    }
+
+    /**
+     * @return Next 8 bytes of the identity: namespace end and instance, or proximity UUID end.
+     * Zero for EIDs.
+     */
+    public long getId1() {
+        return FRAME_EDDYSTONE_EID == mFrameType ? 0 : Util.getLong(mRecord, mOffset + 10);
+    }
+
+    /**
+     * @return Rest of the identity: iBeacon major and minor, else zero.
+     */
+    public int getId2() {
+        return FRAME_IBEACON == mFrameType || FRAME_ALTBEACON == mFrameType ? getMajor() << 16 | getMinor() : 0;
+    }
+    //endregion
+
+    //region Eddystone-UID
+    /**
+     * @return Offset in the record of the 16 bytes of namespace (10 bytes) and instance (6 bytes).
+     */
+    public int getNamespaceInstanceOffset() {
+        return mOffset + 2;
+    }
+
+    /**
+     * @return The first 8 bytes of the namespace, big-endian.
+     */
+    public long getNamespaceHigh() {
+        return Util.getLong(mRecord, mOffset + 2);
+    }
+
+    /**
+     * @return The last 2 bytes of the namespace.
+     */
+    public int getNamespaceLow() {
+        return (mRecord[mOffset + 10] & 0xff) << 8 | mRecord[mOffset + 11] & 0xff;
+    }
+
+    /**
+     * @return The 6 bytes of the instance, big-endian.
+     */
+    public long getInstance() {
+        return Util.getLong(mRecord, mOffset + 10) & 0xffffffffffffL;
+    }
+
+    public void copyNamespaceInstance(byte[] out, int offset) {
+        System.arraycopy(mRecord, mOffset + 2, out, offset, 16);
+    }
+    //endregion
+
+    //region Eddystone-URL
+    /**
+     * @return The decoded URL, as a view that is reused by the next parsed record,
+     * or null if the URL is invalid.
+     */
+    public CharSequence getUrl() {
+        if (!mUrlDecoded) {
+            mUrlDecoded = true;
+            if (!mUrl.set(mRecord, getEncodedUrlOffset(), getEncodedUrlLength())) {
+                return null;
+            }
+        }
+        return mUrl.length() > 0 ? mUrl : null;
+    }
+
+    public int getEncodedUrlOffset() {
+        return mOffset + 2;
+    }
+
+    public int getEncodedUrlLength() {
+        return mLength - 2;
+    }
+    //endregion
+
+    //region Eddystone-TLM
+    /**
+     * @return Battery voltage, in mV.
+     */
+    public int getBatteryVoltage() {
+        return (mRecord[mOffset + 2] & 0xff) << 8 | mRecord[mOffset + 3] & 0xff;
+    }
+
+    /**
+     * @return Beacon temperature, as signed 8.8 fixed point degrees Celsius.
+     */
+    public short getTemperature() {
+        return (short) ((mRecord[mOffset + 4] & 0xff) << 8 | mRecord[mOffset + 5] & 0xff);
+    }
+
+    /**
+     * @return Advertised PDUs count, unsigned.
+     */
+    public long getAdvertisedPDUCount() {
+        return Util.getInt(mRecord, mOffset + 6) & 0xffffffffL;
+    }
+
+    /**
+     * @return Time since power-on, in 0.1 seconds, unsigned.
+     */
+    public long getUptime() {
+        return Util.getInt(mRecord, mOffset + 10) & 0xffffffffL;
+    }
+    //endregion
+
+    //region Eddystone-EID
+    /**
+     * @return The 8-byte Ephemeral ID, as returned by {@link EIDIndex#toKey(byte[], int)}
+     */
+    public long getEID() {
+        return EIDIndex.toKey(mRecord, mOffset + 2);
+    }
+    //endregion
+
+    //region iBeacon and AltBeacon
+    /**
+     * @return Offset in the record of the 16-byte proximity UUID.
+     */
+    public int getProximityUUIDOffset() {
+        return mOffset + 2;
+    }
+
+    public long getProximityUUIDMostSignificantBits() {
+        return Util.getLong(mRecord, mOffset + 2);
+    }
+
+    public long getProximityUUIDLeastSignificantBits() {
+        return Util.getLong(mRecord, mOffset + 10);
+    }
+
+    public int getMajor() {
+        return (mRecord[mOffset + 18] & 0xff) << 8 | mRecord[mOffset + 19] & 0xff;
+    }
+
+    public int getMinor() {
+        return (mRecord[mOffset + 20] & 0xff) << 8 | mRecord[mOffset + 21] & 0xff;
+    }
+    //endregion
+
+    private static int readShortLE(byte[] data, int offset) {
+        return data[offset] & 0xff | (data[offset + 1] & 0xff) << 8;
+    }
+}
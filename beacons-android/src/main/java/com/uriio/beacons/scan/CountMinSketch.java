@@ -0,0 +1,153 @@
+package com.uriio.beacons.scan;
+
+import com.uriio.beacons.Util;
+
+import java.util.Arrays;
+
+/**
+ * Count-min sketch estimating how many times each beacon was seen, in fixed memory whatever the
+ * number of beacons. Estimates never undercount; with width w and depth d they overcount by more
+ * than e/w of the total count with probability at most exp(-d).
+ * Sketches with the same dimensions can be merged, e.g. to combine time windows or devices.
+ * Not thread-safe.
+ */
+public class CountMinSketch {
+    private final int mDepth;
+    private final int mWidth;
+    private final int[] mCounters;
+    private long mTotal = 0;
+
+    /**
+     * @param depth    Number of hash rows, from 1 to 16
+     * @param width    Counters per row; rounded up to a power of two.
+     */
+    public CountMinSketch(int depth, int width) {
+        if (depth < 1 || depth > 16 || width < 1 || width > 1 << 24) {
+            throw new IllegalArgumentException("Invalid dimensions " + depth + "x" + width);
+        }
+
+        int size = Integer.highestOneBit(width);
+        if (size < width) size <<= 1;
+
+        mDepth = depth;
+        mWidth = size;
+        mCounters = new int[depth * size];
+    }
+
+    /**
+     * @param data    Serialized sketch, see {@link #toByteArray()}
+     * @return The sketch, or null if the data is invalid.
+     */
+    public static CountMinSketch fromByteArray(byte[] data) {
+        if (null == data || data.length < 16) return null;
+
+        int depth = Util.getInt(data, 0);
+        int width = Util.getInt(data, 4);
+        if (depth < 1 || depth > 16 || width < 1 || width > 1 << 24 || Integer.bitCount(width) != 1
+                || data.length != 16 + 4 * depth * width) {
+            return null;
+        }
+
+        CountMinSketch sketch = new CountMinSketch(depth, width);
+        sketch.mTotal = (long) Util.getInt(data, 8) << 32 | Util.getInt(data, 12) & 0xffffffffL;
+        for (int i = 0; i < sketch.mCounters.length; i++) {
+            sketch.mCounters[i] = Util.getInt(data, 16 + 4 * i);
+        }
+        return sketch;
+    }
+
+    /**
+     * @return Depth, width, total count and counters, big-endian.
+     */
+    public byte[] toByteArray() {
+        byte[] data = new byte[16 + 4 * mCounters.length];
+        Util.putInt(data, 0, mDepth);
+        Util.putInt(data, 4, mWidth);
+        Util.putInt(data, 8, (int) (mTotal >>> 32));
+        Util.putInt(data, 12, (int) mTotal);
+        for (int i = 0; i < mCounters.length; i++) {
+            Util.putInt(data, 16 + 4 * i, mCounters[i]);
+        }
+        return data;
+    }
+
+    public int getDepth() {
+        return mDepth;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    /**
+     * @return Sum of all added counts.
+     */
+    public long getTotal() {
+        return mTotal;
+    }
+
+    /**
+     * Adds a sighting of the identity of a parsed frame.
+     * @return False if the frame has no identity.
+     */
+    public boolean add(BeaconParser parser) {
+        if (!parser.hasIdentity()) return false;
+
+        add(BeaconIdentity.hash(parser), 1);
+        return true;
+    }
+
+    /**
+     * @param hash     Identity hash, see {@link BeaconIdentity}
+     * @param count    Number of sightings to add
+     */
+    public void add(long hash, int count) {
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32) | 1;
+        int mask = mWidth - 1;
+
+        for (int row = 0, offset = 0; row < mDepth; row++, offset += mWidth) {
+            int index = offset + (h1 + row * h2 & mask);
+            // saturate instead of wrapping around
+            mCounters[index] = (int) Math.min(Integer.MAX_VALUE, (long) mCounters[index] + count);
+        }
+        mTotal += count;
+    }
+
+    /**
+     * @param hash    Identity hash, see {@link BeaconIdentity}
+     * @return Estimated sightings count, never lower than the actual count.
+     */
+    public int estimate(long hash) {
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32) | 1;
+        int mask = mWidth - 1;
+
+        int min = Integer.MAX_VALUE;
+        for (int row = 0, offset = 0; row < mDepth; row++, offset += mWidth) {
+            min = Math.min(min, mCounters[offset + (h1 + row * h2 & mask)]);
+        }
+        return min;
+    }
+
+    /**
+     * Merges another sketch into this one, as if all its sightings had been added here.
+     * @throws IllegalArgumentException if the dimensions differ.
+     */
+    public void merge(CountMinSketch other) {
+        if (other.mDepth != mDepth || other.mWidth != mWidth) {
+            throw new IllegalArgumentException("Dimensions mismatch: " + other.mDepth + "x" + other.mWidth
+                    + " vs " + mDepth + "x" + mWidth);
+        }
+
+        for (int i = 0; i < mCounters.length; i++) {
+            mCounters[i] = (int) Math.min(Integer.MAX_VALUE, (long) mCounters[i] + other.mCounters[i]);
+        }
+        mTotal += other.mTotal;
+    }
+
+    public void clear() {
+        Arrays.fill(mCounters, 0);
+        mTotal = 0;
+    }
+}
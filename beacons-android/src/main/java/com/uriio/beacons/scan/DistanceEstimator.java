@@ -0,0 +1,232 @@
+package com.uriio.beacons.scan;
+
+import com.uriio.beacons.ble.AdvertisersManager;
+
+import java.util.Arrays;
+
+/**
+ * Smooths RSSI readings and estimates distances for many beacons, keeping the filter state of
+ * each beacon slot in parallel primitive arrays so batches are processed in tight loops.
+ * Slots are chosen by the caller, for instance the slots of a {@link SightingAggregator}.
+ * Distances use the log-distance path loss model, from the filtered RSSI and the beacon's
+ * expected RSSI at 1 meter. Not thread-safe.
+ */
+public class DistanceEstimator {
+    /** Exponential moving average of the RSSI */
+    public static final int FILTER_EWMA = 0;
+    /** One-dimensional Kalman filter of the RSSI, assuming a slowly moving receiver */
+    public static final int FILTER_KALMAN = 1;
+
+    private static final float DEFAULT_SMOOTHING = 0.25f;
+    private static final float DEFAULT_PROCESS_NOISE = 0.5f;
+    private static final float DEFAULT_MEASUREMENT_NOISE = 16f;
+    private static final float DEFAULT_PATH_LOSS_EXPONENT = 2f;
+
+    /** Expected RSSI at 1 meter when unknown, matching the lowest TX power level */
+    private static final byte DEFAULT_ONE_METER_TX_POWER = AdvertisersManager.getOneMeterTxPower(0);
+
+    private final int mFilter;
+
+    /** Filtered RSSI per slot; NaN when no reading yet */
+    private final float[] mRssi;
+    /** Kalman estimate variance per slot */
+    private final float[] mVariance;
+    private final byte[] mOneMeterTxPower;
+
+    private float mSmoothing = DEFAULT_SMOOTHING;
+    private float mProcessNoise = DEFAULT_PROCESS_NOISE;
+    private float mMeasurementNoise = DEFAULT_MEASUREMENT_NOISE;
+    private float mInverseExponent = 1f / (10 * DEFAULT_PATH_LOSS_EXPONENT);
+
+    /**
+     * @param capacity    Number of slots
+     * @param filter      {@link #FILTER_EWMA} or {@link #FILTER_KALMAN}
+     */
+    public DistanceEstimator(int capacity, int filter) {
+        if (FILTER_EWMA != filter && FILTER_KALMAN != filter) {
+            throw new IllegalArgumentException("Invalid filter " + filter);
+        }
+
+        mFilter = filter;
+        mRssi = new float[capacity];
+        mVariance = new float[capacity];
+        mOneMeterTxPower = new byte[capacity];
+
+        clear();
+    }
+
+    /**
+     * @param smoothing    Weight of a new reading in the moving average, between 0 and 1.
+     */
+    public void setSmoothing(float smoothing) {
+        mSmoothing = smoothing;
+    }
+
+    /**
+     * @param processNoise        Variance added to the estimate between readings, in dB^2
+     * @param measurementNoise    Variance of a single RSSI reading, in dB^2
+     */
+    public void setKalmanNoise(float processNoise, float measurementNoise) {
+        mProcessNoise = processNoise;
+        mMeasurementNoise = measurementNoise;
+    }
+
+    /**
+     * @param exponent    Path loss exponent; 2 in free space, usually 2 to 4 indoors.
+     */
+    public void setPathLossExponent(float exponent) {
+        mInverseExponent = 1f / (10 * exponent);
+    }
+
+    public int getCapacity() {
+        return mRssi.length;
+    }
+
+    public void clear() {
+        Arrays.fill(mRssi, Float.NaN);
+        Arrays.fill(mOneMeterTxPower, DEFAULT_ONE_METER_TX_POWER);
+    }
+
+    /**
+     * Forgets the readings of a slot, e.g. when it's reused for another beacon.
+     */
+    public void reset(int slot) {
+        mRssi[slot] = Float.NaN;
+        mOneMeterTxPower[slot] = DEFAULT_ONE_METER_TX_POWER;
+    }
+
+    /**
+     * @param txPower    Expected RSSI at 1 meter, in dBm, as advertised by iBeacons.
+     */
+    public void setOneMeterTxPower(int slot, int txPower) {
+        mOneMeterTxPower[slot] = (byte) txPower;
+    }
+
+    /**
+     * Sets a slot's calibration from the TX power advertised in a parsed frame.
+     * Eddystone frames advertise the power at 0 meters, iBeacons at 1 meter.
+     */
+    public void setOneMeterTxPower(int slot, BeaconParser parser) {
+        switch (parser.getFrameType()) {
+            case BeaconParser.FRAME_EDDYSTONE_UID:
+            case BeaconParser.FRAME_EDDYSTONE_URL:
+            case BeaconParser.FRAME_EDDYSTONE_EID:
+                mOneMeterTxPower[slot] = (byte) (parser.getTxPower() - AdvertisersManager.ONE_METER_PATH_LOSS);
+                break;
+            case BeaconParser.FRAME_IBEACON:
+            case BeaconParser.FRAME_ALTBEACON:
+                mOneMeterTxPower[slot] = (byte) parser.getTxPower();
+                break;
+        }
+    }
+
+    /**
+     * Filters a new RSSI reading.
+     * @return The filtered RSSI.
+     */
+    public float update(int slot, int rssi) {
+        float current = mRssi[slot];
+        if (current != current) {
+            // first reading; NaN never equals itself
+            mVariance[slot] = mMeasurementNoise;
+            return mRssi[slot] = rssi;
+        }
+
+        if (FILTER_EWMA == mFilter) {
+            return mRssi[slot] = current + mSmoothing * (rssi - current);
+        }
+
+        float variance = mVariance[slot] + mProcessNoise;
+        float gain = variance / (variance + mMeasurementNoise);
+        mVariance[slot] = (1 - gain) * variance;
+        return mRssi[slot] = current + gain * (rssi - current);
+    }
+
+    /**
+     * Filters a batch of readings.
+     * @param slots    Slot of each reading
+     * @param rssi     RSSI readings
+     * @param count    Number of readings
+     */
+    public void update(int[] slots, int[] rssi, int count) {
+        float[] filtered = mRssi;
+        if (FILTER_EWMA == mFilter) {
+            float smoothing = mSmoothing;
+            for (int i = 0; i < count; i++) {
+                int slot = slots[i];
+                float current = filtered[slot];
+                filtered[slot] = current != current ? rssi[i] : current + smoothing * (rssi[i] - current);
+            }
+        } else {
+            float[] variances = mVariance;
+            float processNoise = mProcessNoise;
+            float measurementNoise = mMeasurementNoise;
+            for (int i = 0; i < count; i++) {
+                int slot = slots[i];
+                float current = filtered[slot];
+                if (current != current) {
+                    filtered[slot] = rssi[i];
+                    variances[slot] = measurementNoise;
+                } else {
+                    float variance = variances[slot] + processNoise;
+                    float gain = variance / (variance + measurementNoise);
+                    variances[slot] = (1 - gain) * variance;
+                    filtered[slot] = current + gain * (rssi[i] - current);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return Filtered RSSI of a slot, or NaN if it has no readings.
+     */
+    public float getRssi(int slot) {
+        return mRssi[slot];
+    }
+
+    /**
+     * @return Estimated distance in meters, or NaN if the slot has no readings.
+     */
+    public float getDistance(int slot) {
+        return toDistance(mOneMeterTxPower[slot], mRssi[slot], mInverseExponent);
+    }
+
+    /**
+     * Estimates the distances of a batch of slots.
+     * @param slots    Slots to estimate
+     * @param count    Number of slots
+     * @param out      Distances in meters, NaN for slots without readings
+     */
+    public void getDistances(int[] slots, int count, float[] out) {
+        float inverseExponent = mInverseExponent;
+        for (int i = 0; i < count; i++) {
+            int slot = slots[i];
+            out[i] = toDistance(mOneMeterTxPower[slot], mRssi[slot], inverseExponent);
+        }
+    }
+
+    /**
+     * Estimates the distances of all slots.
+     * @param out    Distances in meters, indexed by slot; NaN for slots without readings
+     */
+    public void getDistances(float[] out) {
+        float inverseExponent = mInverseExponent;
+        for (int slot = 0; slot < mRssi.length; slot++) {
+            out[slot] = toDistance(mOneMeterTxPower[slot], mRssi[slot], inverseExponent);
+        }
+    }
+
+    /**
+     * @param oneMeterTxPower    Expected RSSI at 1 meter, in dBm
+     * @param rssi               Received RSSI, in dBm
+     * @param exponent           Path loss exponent
+     * @return Estimated distance in meters.
+     */
+    public static float estimateDistance(int oneMeterTxPower, float rssi, float exponent) {
+        return toDistance(oneMeterTxPower, rssi, 1f / (10 * exponent));
+    }
+
+    private static float toDistance(int oneMeterTxPower, float rssi, float inverseExponent) {
+        return (float) Math.pow(10, (oneMeterTxPower - rssi) * inverseExponent);
+    }
+}
@@ -0,0 +1,127 @@
+package com.uriio.beacons.scan;
+
+import java.util.Arrays;
+
+/**
+ * HyperLogLog sketch estimating the number of distinct beacons seen, using a fixed number of
+ * one-byte registers whatever the cardinality. The standard error is about 1.04 / sqrt(2^precision).
+ * Sketches of the same precision can be merged, e.g. to combine time windows or devices.
+ * Not thread-safe.
+ */
+public class HyperLogLog {
+    public static final int MIN_PRECISION = 4;
+    public static final int MAX_PRECISION = 16;
+
+    private final int mPrecision;
+    private final byte[] mRegisters;
+
+    /**
+     * @param precision    Log2 of the number of registers, from 4 to 16.
+     */
+    public HyperLogLog(int precision) {
+        if (precision < MIN_PRECISION || precision > MAX_PRECISION) {
+            throw new IllegalArgumentException("Invalid precision " + precision);
+        }
+
+        mPrecision = precision;
+        mRegisters = new byte[1 << precision];
+    }
+
+    /**
+     * @param data    Serialized sketch, see {@link #toByteArray()}
+     * @return The sketch, or null if the data is invalid.
+     */
+    public static HyperLogLog fromByteArray(byte[] data) {
+        if (null == data || data.length < 1) return null;
+
+        int precision = data[0];
+        if (precision < MIN_PRECISION || precision > MAX_PRECISION || data.length != 1 + (1 << precision)) {
+            return null;
+        }
+
+        HyperLogLog sketch = new HyperLogLog(precision);
+        System.arraycopy(data, 1, sketch.mRegisters, 0, sketch.mRegisters.length);
+        return sketch;
+    }
+
+    /**
+     * @return The precision byte followed by the registers.
+     */
+    public byte[] toByteArray() {
+        byte[] data = new byte[1 + mRegisters.length];
+        data[0] = (byte) mPrecision;
+        System.arraycopy(mRegisters, 0, data, 1, mRegisters.length);
+        return data;
+    }
+
+    public int getPrecision() {
+        return mPrecision;
+    }
+
+    /**
+     * Adds the identity of a parsed frame.
+     * @return False if the frame has no identity.
+     */
+    public boolean add(BeaconParser parser) {
+        if (!parser.hasIdentity()) return false;
+
+        add(BeaconIdentity.hash(parser));
+        return true;
+    }
+
+    /**
+     * @param hash    Identity hash, see {@link BeaconIdentity}
+     */
+    public void add(long hash) {
+        int index = (int) (hash >>> (64 - mPrecision));
+        // rank of the first set bit in the remaining bits; the guard bit bounds it
+        int rank = Long.numberOfLeadingZeros(hash << mPrecision | 1L << (mPrecision - 1)) + 1;
+        if (rank > mRegisters[index]) {
+            mRegisters[index] = (byte) rank;
+        }
+    }
+
+    /**
+     * Merges another sketch into this one, as if all its values had been added here.
+     * @throws IllegalArgumentException if the precisions differ.
+     */
+    public void merge(HyperLogLog other) {
+        if (other.mPrecision != mPrecision) {
+            throw new IllegalArgumentException("Precision mismatch: " + other.mPrecision + " vs " + mPrecision);
+        }
+
+        byte[] registers = other.mRegisters;
+        for (int i = 0; i < mRegisters.length; i++) {
+            if (registers[i] > mRegisters[i]) {
+                mRegisters[i] = registers[i];
+            }
+        }
+    }
+
+    /**
+     * @return Estimated number of distinct values added.
+     */
+    public long estimate() {
+        int m = mRegisters.length;
+        double sum = 0;
+        int zeros = 0;
+        for (byte register : mRegisters) {
+            sum += 1.0 / (1L << register);
+            if (0 == register) zeros++;
+        }
+
+        double alpha = 16 == m ? 0.673 : 32 == m ? 0.697 : 64 == m ? 0.709 : 0.7213 / (1 + 1.079 / m);
+        double estimate = alpha * m * m / sum;
+
+        // small range correction with linear counting; 64-bit hashes need no large range correction
+        if (estimate <= 2.5 * m && zeros > 0) {
+            estimate = m * Math.log((double) m / zeros);
+        }
+
+        return Math.round(estimate);
+    }
+
+    public void clear() {
+        Arrays.fill(mRegisters, (byte) 0);
+    }
+}
@@ -0,0 +1,341 @@
+package com.uriio.beacons.scan;
+
+import com.uriio.beacons.Util;
+import com.uriio.beacons.model.EddystoneUID;
+import com.uriio.beacons.model.iBeacon;
+
+import java.util.Arrays;
+
+/**
+ * Matches beacon frames against registered regions, and tracks entering and leaving them.
+ * A region is an iBeacon UUID, UUID and major, or UUID, major and minor; or an Eddystone-UID
+ * namespace, or namespace and instance. iBeacon regions also match AltBeacon frames.
+ * <p>
+ * Regions are hashed by their identity prefix, so matching a frame costs one lookup per wildcard
+ * level (three for iBeacon, two for Eddystone-UID) whatever the number of regions.
+ * A region is entered after a given number of sightings, and left when not seen for a timeout;
+ * call {@link #update(long)} periodically to detect exits. Not thread-safe.
+ */
+public class RegionMatcher {
+    public interface Listener {
+        void onRegionEnter(int region);
+        void onRegionExit(int region);
+    }
+
+    /** Wildcard value for major or minor. */
+    public static final int ANY = -1;
+
+    private static final int LEVEL_UUID = 0;
+    private static final int LEVEL_MAJOR = 1;
+    private static final int LEVEL_MINOR = 2;
+    private static final int LEVEL_NAMESPACE = 0;
+    private static final int LEVEL_INSTANCE = 1;
+
+    private static final long NAMESPACE_MASK = 0xffff000000000000L;
+
+    private static final int DEFAULT_ENTER_SIGHTINGS = 1;
+    private static final long DEFAULT_EXIT_TIMEOUT = 10000;
+
+    private final Listener mListener;
+    private int mEnterSightings = DEFAULT_ENTER_SIGHTINGS;
+    private long mExitTimeout = DEFAULT_EXIT_TIMEOUT;
+
+    // region keys; kind is FRAME_NONE for free slots
+    private byte[] mKind;
+    private byte[] mLevel;
+    private long[] mId0;
+    private long[] mId1;
+    private int[] mId2;
+    private int[] mChain;
+
+    // presence
+    private long[] mLastSeen;
+    private int[] mSightings;
+    private boolean[] mInside;
+
+    /** Regions sighted recently, most recent first */
+    private int[] mOlder;
+    private int[] mNewer;
+    private int mNewest = -1;
+    private int mOldest = -1;
+
+    private int[] mBuckets;
+    private int mFree = -1;
+    private int mEnd = 0;
+    private int mCount = 0;
+
+    public RegionMatcher(Listener listener, int expectedRegions) {
+        mListener = listener;
+        allocate(Math.max(16, expectedRegions));
+    }
+
+    public RegionMatcher(Listener listener) {
+        this(listener, 16);
+    }
+
+    /**
+     * @param enterSightings    Sightings needed to enter a region, each within the exit timeout of the previous
+     * @param exitTimeout       Time without sightings after which a region is left, in the units of match times
+     */
+    public void setDebounce(int enterSightings, long exitTimeout) {
+        mEnterSightings = Math.max(1, enterSightings);
+        mExitTimeout = exitTimeout;
+    }
+
+    public int getRegionCount() {
+        return mCount;
+    }
+
+    /**
+     * @param uuid     16-byte proximity UUID
+     * @param major    Major, or {@link #ANY}
+     * @param minor    Minor, or {@link #ANY}; must be ANY if major is.
+     * @return The region ID.
+     */
+    public int addIBeaconRegion(byte[] uuid, int major, int minor) {
+        if (ANY == major && ANY != minor) {
+            throw new IllegalArgumentException("Minor without major");
+        }
+
+        int level = ANY == major ? LEVEL_UUID : ANY == minor ? LEVEL_MAJOR : LEVEL_MINOR;
+        int id2 = ANY == major ? 0 : ANY == minor ? major << 16 : major << 16 | minor;
+
+        return addRegion(BeaconParser.FRAME_IBEACON, level, Util.getLong(uuid, 0), Util.getLong(uuid, 8), id2);
+    }
+
+    /**
+     * @return The ID of a region matching exactly the beacon.
+     */
+    public int addIBeaconRegion(iBeacon beacon) {
+        return addIBeaconRegion(beacon.getUuidRaw(), beacon.getMajor(), beacon.getMinor());
+    }
+
+    /**
+     * @param namespaceInstance    10-byte namespace followed by 6-byte instance
+     * @param matchInstance        False to match any instance in the namespace
+     * @return The region ID.
+     */
+    public int addEddystoneRegion(byte[] namespaceInstance, boolean matchInstance) {
+        long id1 = Util.getLong(namespaceInstance, 8);
+        return addRegion(BeaconParser.FRAME_EDDYSTONE_UID,
+                matchInstance ? LEVEL_INSTANCE : LEVEL_NAMESPACE,
+                Util.getLong(namespaceInstance, 0), matchInstance ? id1 : id1 & NAMESPACE_MASK, 0);
+    }
+
+    /**
+     * @return The ID of a region matching exactly the beacon.
+     */
+    public int addEddystoneRegion(EddystoneUID beacon) {
+        return addEddystoneRegion(beacon.getNamespaceInstance(), true);
+    }
+
+    /**
+     * Unregisters a region, without an exit event. Its ID may be reused by a later region.
+     */
+    public void removeRegion(int region) {
+        if (BeaconParser.FRAME_NONE == mKind[region]) return;
+
+        int bucket = bucketOf(mKind[region], mLevel[region], mId0[region], mId1[region], mId2[region]);
+        if (mBuckets[bucket] == region) {
+            mBuckets[bucket] = mChain[region];
+        } else {
+            int prev = mBuckets[bucket];
+            while (mChain[prev] != region) prev = mChain[prev];
+            mChain[prev] = mChain[region];
+        }
+
+        if (mSightings[region] > 0) {
+            unlink(region);
+        }
+
+        mKind[region] = BeaconParser.FRAME_NONE;
+        mChain[region] = mFree;
+        mFree = region;
+        mCount--;
+    }
+
+    public boolean isInside(int region) {
+        return mInside[region];
+    }
+
+    /**
+     * Matches the last frame parsed by a parser.
+     * @param time    Sighting time, in any monotonic unit used consistently
+     * @return Number of matching regions.
+     */
+    public int match(BeaconParser parser, long time) {
+        if (!parser.hasIdentity()) return 0;
+
+        return match(parser.getFrameType(), parser.getId0(), parser.getId1(), parser.getId2(), time);
+    }
+
+    /**
+     * Matches a beacon identity, see {@link BeaconParser#getId0()} and the following getters.
+     * @return Number of matching regions.
+     */
+    public int match(int kind, long id0, long id1, int id2, long time) {
+        switch (kind) {
+            case BeaconParser.FRAME_IBEACON:
+            case BeaconParser.FRAME_ALTBEACON:
+                return match(BeaconParser.FRAME_IBEACON, LEVEL_UUID, id0, id1, 0, time)
+                        + match(BeaconParser.FRAME_IBEACON, LEVEL_MAJOR, id0, id1, id2 & 0xffff0000, time)
+                        + match(BeaconParser.FRAME_IBEACON, LEVEL_MINOR, id0, id1, id2, time);
+            case BeaconParser.FRAME_EDDYSTONE_UID:
+                return match(kind, LEVEL_NAMESPACE, id0, id1 & NAMESPACE_MASK, 0, time)
+                        + match(kind, LEVEL_INSTANCE, id0, id1, 0, time);
+        }
+        return 0;
+    }
+
+    /**
+     * Leaves the regions not sighted within the exit timeout before the given time.
+     * @return Number of regions left.
+     */
+    public int update(long time) {
+        int exits = 0;
+        while (-1 != mOldest && time - mLastSeen[mOldest] > mExitTimeout) {
+            int region = mOldest;
+            unlink(region);
+            mSightings[region] = 0;
+
+            if (mInside[region]) {
+                mInside[region] = false;
+                exits++;
+                mListener.onRegionExit(region);
+            }
+        }
+        return exits;
+    }
+
+    private int match(int kind, int level, long id0, long id1, int id2, long time) {
+        int matches = 0;
+        for (int region = mBuckets[bucketOf(kind, level, id0, id1, id2)]; -1 != region; region = mChain[region]) {
+            if (mId0[region] == id0 && mId1[region] == id1 && mId2[region] == id2
+                    && mLevel[region] == level && mKind[region] == kind) {
+                onSighting(region, time);
+                matches++;
+            }
+        }
+        return matches;
+    }
+
+    private void onSighting(int region, long time) {
+        if (mSightings[region] > 0) {
+            if (!mInside[region] && time - mLastSeen[region] > mExitTimeout) {
+                // too late for a debounced enter; start counting again
+                mSightings[region] = 0;
+            }
+            unlink(region);
+        }
+
+        linkNewest(region);
+        mLastSeen[region] = time;
+
+        if (mSightings[region] < mEnterSightings) {
+            mSightings[region]++;
+        }
+
+        if (!mInside[region] && mSightings[region] >= mEnterSightings) {
+            mInside[region] = true;
+            mListener.onRegionEnter(region);
+        }
+    }
+
+    private int addRegion(int kind, int level, long id0, long id1, int id2) {
+        int region;
+        if (-1 != mFree) {
+            region = mFree;
+            mFree = mChain[region];
+        } else {
+            if (mEnd == mKind.length) {
+                grow();
+            }
+            region = mEnd++;
+        }
+
+        mKind[region] = (byte) kind;
+        mLevel[region] = (byte) level;
+        mId0[region] = id0;
+        mId1[region] = id1;
+        mId2[region] = id2;
+        mSightings[region] = 0;
+        mInside[region] = false;
+
+        int bucket = bucketOf(kind, level, id0, id1, id2);
+        mChain[region] = mBuckets[bucket];
+        mBuckets[bucket] = region;
+        mCount++;
+
+        return region;
+    }
+
+    private void allocate(int capacity) {
+        mKind = new byte[capacity];
+        mLevel = new byte[capacity];
+        mId0 = new long[capacity];
+        mId1 = new long[capacity];
+        mId2 = new int[capacity];
+        mChain = new int[capacity];
+        mLastSeen = new long[capacity];
+        mSightings = new int[capacity];
+        mInside = new boolean[capacity];
+        mOlder = new int[capacity];
+        mNewer = new int[capacity];
+
+        int buckets = Integer.highestOneBit(capacity);
+        if (buckets < capacity) buckets <<= 1;
+        mBuckets = new int[buckets];
+        Arrays.fill(mBuckets, -1);
+    }
+
+    private void grow() {
+        int capacity = mKind.length << 1;
+
+        mKind = Arrays.copyOf(mKind, capacity);
+        mLevel = Arrays.copyOf(mLevel, capacity);
+        mId0 = Arrays.copyOf(mId0, capacity);
+        mId1 = Arrays.copyOf(mId1, capacity);
+        mId2 = Arrays.copyOf(mId2, capacity);
+        mChain = Arrays.copyOf(mChain, capacity);
+        mLastSeen = Arrays.copyOf(mLastSeen, capacity);
+        mSightings = Arrays.copyOf(mSightings, capacity);
+        mInside = Arrays.copyOf(mInside, capacity);
+        mOlder = Arrays.copyOf(mOlder, capacity);
+        mNewer = Arrays.copyOf(mNewer, capacity);
+
+        // no free slots when growing, so every region below mEnd is in use
+        mBuckets = new int[capacity];
+        Arrays.fill(mBuckets, -1);
+        for (int region = 0; region < mEnd; region++) {
+            int bucket = bucketOf(mKind[region], mLevel[region], mId0[region], mId1[region], mId2[region]);
+            mChain[region] = mBuckets[bucket];
+            mBuckets[bucket] = region;
+        }
+    }
+
+    private void linkNewest(int region) {
+        mOlder[region] = mNewest;
+        mNewer[region] = -1;
+        if (-1 != mNewest) {
+            mNewer[mNewest] = region;
+        } else {
+            mOldest = region;
+        }
+        mNewest = region;
+    }
+
+    private void unlink(int region) {
+        int older = mOlder[region];
+        int newer = mNewer[region];
+
+        if (-1 != older) mNewer[older] = newer;
+        else mOldest = newer;
+
+        if (-1 != newer) mOlder[newer] = older;
+        else mNewest = older;
+    }
+
+    private int bucketOf(int kind, int level, long id0, long id1, int id2) {
+        return (int) BeaconIdentity.hash(kind << 4 | level, id0, id1, id2) & (mBuckets.length - 1);
+    }
+}
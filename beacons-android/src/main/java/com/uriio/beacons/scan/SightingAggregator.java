@@ -0,0 +1,328 @@
+package com.uriio.beacons.scan;
+
+import java.util.Arrays;
+
+/**
+ * Merges repeated sightings of the same beacon into per-beacon statistics: first and last seen
+ * time, sighting count, and RSSI min, max and moving average. Beacons are identified by their
+ * Eddystone namespace and instance, iBeacon (or AltBeacon) UUID, major and minor, or Eddystone EID.
+ * <p>
+ * All statistics live in parallel primitive arrays allocated up front, so memory use is fixed
+ * and adding a sighting allocates nothing. When full, the least recently seen beacon is evicted.
+ * Beacons are referred to by slot numbers, which stay valid until the beacon is evicted or removed.
+ * Not thread-safe.
+ */
+public class SightingAggregator {
+    public interface EvictionListener {
+        /**
+         * Called before the least recently seen beacon is evicted, while its slot is still readable.
+         */
+        void onEvicted(SightingAggregator aggregator, int slot);
+    }
+
+    /** Approximate heap bytes used by each slot, including the hash table. */
+    public static final int BYTES_PER_SLOT = 1 + 8 + 8 + 4 + 8 + 8 + 4 + 1 + 1 + 4 + 4 + 4 + 4 + 8;
+
+    private static final float DEFAULT_RSSI_SMOOTHING = 0.25f;
+
+    private final int mCapacity;
+
+    // identity
+    private final byte[] mKind;
+    private final long[] mId0;
+    private final long[] mId1;
+    private final int[] mId2;
+
+    // stats
+    private final long[] mFirstSeen;
+    private final long[] mLastSeen;
+    private final int[] mCount;
+    private final byte[] mRssiMin;
+    private final byte[] mRssiMax;
+    private final float[] mRssiAverage;
+
+    /** Hash chains: bucket heads and next slot in chain, -1 terminated */
+    private final int[] mBuckets;
+    private final int[] mChain;
+
+    /** Recency list, most recent first; also links free slots through mNewer */
+    private final int[] mOlder;
+    private final int[] mNewer;
+    private int mNewest = -1;
+    private int mOldest = -1;
+    private int mFree;
+
+    private int mSize = 0;
+    private float mRssiSmoothing = DEFAULT_RSSI_SMOOTHING;
+    private EvictionListener mEvictionListener = null;
+
+    /**
+     * @param capacity    Maximum number of beacons tracked at once.
+     */
+    public SightingAggregator(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Invalid capacity " + capacity);
+        }
+
+        mCapacity = capacity;
+
+        mKind = new byte[capacity];
+        mId0 = new long[capacity];
+        mId1 = new long[capacity];
+        mId2 = new int[capacity];
+
+        mFirstSeen = new long[capacity];
+        mLastSeen = new long[capacity];
+        mCount = new int[capacity];
+        mRssiMin = new byte[capacity];
+        mRssiMax = new byte[capacity];
+        mRssiAverage = new float[capacity];
+
+        int buckets = Integer.highestOneBit(capacity);
+        if (buckets < capacity) buckets <<= 1;
+        mBuckets = new int[buckets];
+        mChain = new int[capacity];
+
+        mOlder = new int[capacity];
+        mNewer = new int[capacity];
+
+        clear();
+    }
+
+    /**
+     * @param maxBytes    Memory ceiling, in bytes
+     * @return An aggregator with as many slots as fit in the given memory.
+     */
+    public static SightingAggregator withMemoryLimit(int maxBytes) {
+        return new SightingAggregator(Math.max(1, maxBytes / BYTES_PER_SLOT));
+    }
+
+    public void setEvictionListener(EvictionListener listener) {
+        mEvictionListener = listener;
+    }
+
+    /**
+     * @param smoothing    Weight of a new RSSI in the moving average, between 0 and 1.
+     */
+    public void setRssiSmoothing(float smoothing) {
+        mRssiSmoothing = smoothing;
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public int getCapacity() {
+        return mCapacity;
+    }
+
+    public void clear() {
+        Arrays.fill(mBuckets, -1);
+        for (int i = 0; i < mCapacity; i++) {
+            mNewer[i] = i + 1 < mCapacity ? i + 1 : -1;
+            mKind[i] = BeaconParser.FRAME_NONE;
+        }
+        mFree = 0;
+        mNewest = mOldest = -1;
+        mSize = 0;
+    }
+
+    /**
+     * Adds a sighting of the last frame parsed by a parser.
+     * @param parser    Parser holding an Eddystone-UID, Eddystone-EID, iBeacon or AltBeacon frame
+     * @param rssi      Received signal strength, in dBm
+     * @param time      Sighting time, in any monotonic unit used consistently
+     * @return The beacon's slot, or -1 if the frame doesn't identify a beacon.
+     */
+    public int add(BeaconParser parser, int rssi, long time) {
+        if (!parser.hasIdentity()) return -1;
+
+        return add(parser.getFrameType(), parser.getId0(), parser.getId1(), parser.getId2(), rssi, time);
+    }
+
+    /**
+     * Adds a sighting of a beacon identity.
+     * @param kind    Frame type, as defined by {@link BeaconParser}
+     * @param id0     First 8 bytes of the identity, see {@link BeaconParser#getId0()}
+     * @param id1     Next 8 bytes of the identity, see {@link BeaconParser#getId1()}
+     * @param id2     Rest of the identity, see {@link BeaconParser#getId2()}
+     * @return The beacon's slot.
+     */
+    public int add(int kind, long id0, long id1, int id2, int rssi, long time) {
+        int bucket = bucketOf(kind, id0, id1, id2);
+        int slot = find(bucket, kind, id0, id1, id2);
+
+        if (slot < 0) {
+            slot = allocate();
+
+            mKind[slot] = (byte) kind;
+            mId0[slot] = id0;
+            mId1[slot] = id1;
+            mId2[slot] = id2;
+            mChain[slot] = mBuckets[bucket];
+            mBuckets[bucket] = slot;
+
+            mFirstSeen[slot] = time;
+            mCount[slot] = 0;
+            mRssiMin[slot] = mRssiMax[slot] = (byte) rssi;
+            mRssiAverage[slot] = rssi;
+            linkNewest(slot);
+        } else if (slot != mNewest) {
+            unlink(slot);
+            linkNewest(slot);
+        }
+
+        mLastSeen[slot] = time;
+        mCount[slot]++;
+        if (rssi < mRssiMin[slot]) mRssiMin[slot] = (byte) rssi;
+        if (rssi > mRssiMax[slot]) mRssiMax[slot] = (byte) rssi;
+        mRssiAverage[slot] += mRssiSmoothing * (rssi - mRssiAverage[slot]);
+
+        return slot;
+    }
+
+    /**
+     * @return The beacon's slot, or -1 if not tracked.
+     */
+    public int find(int kind, long id0, long id1, int id2) {
+        return find(bucketOf(kind, id0, id1, id2), kind, id0, id1, id2);
+    }
+
+    /**
+     * Stops tracking a beacon.
+     */
+    public void remove(int slot) {
+        if (BeaconParser.FRAME_NONE == mKind[slot]) return;
+
+        int bucket = bucketOf(mKind[slot], mId0[slot], mId1[slot], mId2[slot]);
+        if (mBuckets[bucket] == slot) {
+            mBuckets[bucket] = mChain[slot];
+        } else {
+            int prev = mBuckets[bucket];
+            while (mChain[prev] != slot) prev = mChain[prev];
+            mChain[prev] = mChain[slot];
+        }
+
+        unlink(slot);
+        mKind[slot] = BeaconParser.FRAME_NONE;
+        mNewer[slot] = mFree;
+        mFree = slot;
+        mSize--;
+    }
+
+    /**
+     * Removes all beacons last seen before a given time.
+     * @return Number of removed beacons.
+     */
+    public int removeOlderThan(long time) {
+        int removed = 0;
+        while (-1 != mOldest && mLastSeen[mOldest] < time) {
+            remove(mOldest);
+            removed++;
+        }
+        return removed;
+    }
+
+    /**
+     * @return Slot of the most recently seen beacon, or -1 if empty.
+     */
+    public int getNewest() {
+        return mNewest;
+    }
+
+    /**
+     * @return Slot of the beacon seen before the given one, or -1.
+     */
+    public int getOlder(int slot) {
+        return mOlder[slot];
+    }
+
+    public int getKind(int slot) {
+        return mKind[slot];
+    }
+
+    public long getId0(int slot) {
+        return mId0[slot];
+    }
+
+    public long getId1(int slot) {
+        return mId1[slot];
+    }
+
+    public int getId2(int slot) {
+        return mId2[slot];
+    }
+
+    public long getFirstSeen(int slot) {
+        return mFirstSeen[slot];
+    }
+
+    public long getLastSeen(int slot) {
+        return mLastSeen[slot];
+    }
+
+    public int getCount(int slot) {
+        return mCount[slot];
+    }
+
+    public int getRssiMin(int slot) {
+        return mRssiMin[slot];
+    }
+
+    public int getRssiMax(int slot) {
+        return mRssiMax[slot];
+    }
+
+    public float getRssiAverage(int slot) {
+        return mRssiAverage[slot];
+    }
+
+    private int find(int bucket, int kind, long id0, long id1, int id2) {
+        for (int slot = mBuckets[bucket]; -1 != slot; slot = mChain[slot]) {
+            if (mId0[slot] == id0 && mId1[slot] == id1 && mId2[slot] == id2 && mKind[slot] == kind) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    private int allocate() {
+        if (-1 == mFree) {
+            if (null != mEvictionListener) {
+                mEvictionListener.onEvicted(this, mOldest);
+            }
+            remove(mOldest);
+        }
+
+        int slot = mFree;
+        mFree = mNewer[slot];
+        mSize++;
+        return slot;
+    }
+
+    private void linkNewest(int slot) {
+        mOlder[slot] = mNewest;
+        mNewer[slot] = -1;
+        if (-1 != mNewest) {
+            mNewer[mNewest] = slot;
+        } else {
+            mOldest = slot;
+        }
+        mNewest = slot;
+    }
+
+    private void unlink(int slot) {
+        int older = mOlder[slot];
+        int newer = mNewer[slot];
+
+        if (-1 != older) mNewer[older] = newer;
+        else mOldest = newer;
+
+        if (-1 != newer) mOlder[newer] = older;
+        else mNewest = older;
+    }
+
+    private int bucketOf(int kind, long id0, long id1, int id2) {
+        return (int) BeaconIdentity.hash(kind, id0, id1, id2) & (mBuckets.length - 1);
+    }
+}
@@ -0,0 +1,75 @@
+package com.uriio.beacons;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class LongIntMapTest {
+    @Test
+    public void basics() throws Exception {
+        LongIntMap map = new LongIntMap(4, -7);
+        assertEquals(-7, map.get(1));
+        assertEquals(-7, map.put(1, 10));
+        assertEquals(10, map.put(1, 11));
+        assertEquals(11, map.get(1));
+        assertTrue(map.containsKey(1));
+        assertEquals(1, map.size());
+
+        assertEquals(11, map.remove(1));
+        assertEquals(-7, map.remove(1));
+        assertFalse(map.containsKey(1));
+        assertEquals(0, map.size());
+    }
+
+    @Test
+    public void backwardShiftDeletion() throws Exception {
+        // a small table with many keys gives long probe runs that wrap around the table end
+        LongIntMap map = new LongIntMap(9);
+        long[] keys = new long[9];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = i * 0x9E3779B97F4A7C15L;
+            map.put(keys[i], i);
+        }
+
+        // every removal must leave the rest of its probe run reachable
+        for (int removed = 0; removed < keys.length; removed++) {
+            assertEquals(removed, map.remove(keys[removed]));
+            for (int i = 0; i < keys.length; i++) {
+                assertEquals(i > removed ? i : -1, map.get(keys[i]));
+            }
+        }
+        assertEquals(0, map.size());
+    }
+
+    @Test
+    public void matchesHashMap() throws Exception {
+        Random random = new Random(3);
+        LongIntMap map = new LongIntMap(16);
+        Map<Long, Integer> reference = new HashMap<>();
+
+        for (int i = 0; i < 50000; i++) {
+            // few distinct keys, so puts, updates and removals of present keys all happen often
+            long key = random.nextInt(500) * 1000003L;
+            if (random.nextInt(3) == 0) {
+                Integer expected = reference.remove(key);
+                assertEquals(null == expected ? -1 : expected, map.remove(key));
+            } else {
+                int value = random.nextInt(1000);
+                Integer expected = reference.put(key, value);
+                assertEquals(null == expected ? -1 : expected, map.put(key, value));
+            }
+        }
+
+        assertEquals(reference.size(), map.size());
+        for (long k = 0; k < 500; k++) {
+            Integer expected = reference.get(k * 1000003L);
+            assertEquals(null == expected ? -1 : expected, map.get(k * 1000003L));
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.uriio.beacons;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.UUID;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class UtilTest {
+    @Test
+    public void hex() throws Exception {
+        byte[] raw = {0x00, 0x1f, (byte) 0xa0, (byte) 0xff, 0x7e};
+        assertEquals("001fa0ff7e", Util.binToHex(raw));
+        assertEquals("1f:a0:", Util.binToHex(raw, 1, 2, ':'));
+        assertEquals("x1fa0", Util.appendHex(new StringBuilder("x"), raw, 1, 2).toString());
+
+        char[] chars = new char[12];
+        assertEquals(10, Util.binToHex(raw, 0, raw.length, chars, 1));
+        assertEquals("001fa0ff7e", new String(chars, 1, 10));
+
+        assertArrayEquals(raw, Util.hexToBin("001fa0ff7e"));
+        assertArrayEquals(raw, Util.hexToBin("001FA0fF7E"));
+        assertArrayEquals(new byte[0], Util.hexToBin(""));
+
+        assertNull(Util.hexToBin("001"));
+        assertNull(Util.hexToBin("0g"));
+        assertNull(Util.hexToBin("0 "));
+        assertNull(Util.hexToBin("\u0660\u0661"));
+
+        byte[] out = new byte[4];
+        assertEquals(2, Util.hexToBin("--A0ff--", 2, 6, out, 1));
+        assertArrayEquals(new byte[] {0, (byte) 0xa0, (byte) 0xff, 0}, out);
+        assertEquals(-1, Util.hexToBin("A0fz", 0, 4, out, 0));
+        assertArrayEquals(new byte[] {0, (byte) 0xa0, (byte) 0xff, 0}, out);
+    }
+
+    @Test
+    public void uuid() throws Exception {
+        Random random = new Random(14);
+        byte[] raw = new byte[18];
+        byte[] parsed = new byte[16];
+
+        for (int i = 0; i < 100; i++) {
+            random.nextBytes(raw);
+            UUID uuid = Util.binToUUID(raw, 2);
+            String str = uuid.toString();
+
+            assertEquals(str, Util.appendUUID(new StringBuilder(),
+                    Util.getLong(raw, 2), Util.getLong(raw, 10)).toString());
+
+            assertTrue(Util.uuidToBin(str.toUpperCase(), parsed, 0));
+            assertArrayEquals(Arrays.copyOfRange(raw, 2, 18), parsed);
+
+            assertTrue(Util.uuidToBin(str.replace("-", ""), parsed, 0));
+            assertArrayEquals(Arrays.copyOfRange(raw, 2, 18), parsed);
+
+            Arrays.fill(parsed, (byte) 0);
+            Util.uuidToBin(uuid, parsed, 0);
+            assertArrayEquals(Arrays.copyOfRange(raw, 2, 18), parsed);
+        }
+
+        assertFalse(Util.uuidToBin("01234567-89ab-cdef-0123-456789abcde", parsed, 0));
+        assertFalse(Util.uuidToBin("01234567+89ab-cdef-0123-456789abcdef", parsed, 0));
+        assertFalse(Util.uuidToBin("01234567-89ab-cdef-0123-456789abcdeg", parsed, 0));
+    }
+
+    @Test
+    public void bigEndian() throws Exception {
+        byte[] raw = new byte[7];
+        Util.putShort(raw, 0, 0x0cf3);
+        Util.putInt(raw, 2, 0x80a1b2c3);
+        assertArrayEquals(new byte[] {0x0c, (byte) 0xf3, (byte) 0x80, (byte) 0xa1, (byte) 0xb2, (byte) 0xc3, 0}, raw);
+        assertEquals(0x80a1b2c3, Util.getInt(raw, 2));
+    }
+}
@@ -0,0 +1,38 @@
+package com.uriio.beacons.ble;
+
+import android.bluetooth.le.AdvertiseSettings;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public class AdvertiseCacheTest {
+    @Before
+    public void setUp() throws Exception {
+        AdvertiseCache.clear();
+    }
+
+    @Test
+    public void settings() throws Exception {
+        AdvertiseSettings settings = AdvertiseCache.getSettings(AdvertiseSettings.ADVERTISE_MODE_BALANCED,
+                AdvertiseSettings.ADVERTISE_TX_POWER_HIGH, true);
+        assertEquals(AdvertiseSettings.ADVERTISE_MODE_BALANCED, settings.getMode());
+        assertEquals(AdvertiseSettings.ADVERTISE_TX_POWER_HIGH, settings.getTxPowerLevel());
+        assertEquals(true, settings.isConnectable());
+
+        assertSame(settings, AdvertiseCache.getSettings(AdvertiseSettings.ADVERTISE_MODE_BALANCED,
+                AdvertiseSettings.ADVERTISE_TX_POWER_HIGH, true));
+        assertNotSame(settings, AdvertiseCache.getSettings(AdvertiseSettings.ADVERTISE_MODE_BALANCED,
+                AdvertiseSettings.ADVERTISE_TX_POWER_HIGH, false));
+
+        try {
+            AdvertiseCache.getSettings(3, 0, false);
+            fail();
+        } catch (IllegalArgumentException ignored) {
+        }
+    }
+}
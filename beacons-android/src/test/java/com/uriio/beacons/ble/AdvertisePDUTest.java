@@ -0,0 +1,58 @@
+package com.uriio.beacons.ble;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.UUID;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class AdvertisePDUTest {
+    private static final UUID EDDYSTONE = new UUID(0x0000FEAA00001000L, 0x800000805F9B34FBL);
+
+    @Test
+    public void fields() throws Exception {
+        AdvertisePDU pdu = new AdvertisePDU();
+        assertTrue(pdu.addFlags(AdvertisePDU.FLAGS_GENERAL_DISCOVERABLE));
+        assertTrue(pdu.addServiceUuids(Arrays.asList(EDDYSTONE)));
+        assertTrue(pdu.addServiceData(EDDYSTONE, new byte[] {0x10, (byte) 0xEB, 0x00}));
+        assertTrue(pdu.addManufacturerData(0x004C, new byte[] {0x02}));
+
+        assertArrayEquals(new byte[] {
+                2, 0x01, 0x06,
+                3, 0x03, (byte) 0xAA, (byte) 0xFE,
+                6, 0x16, (byte) 0xAA, (byte) 0xFE, 0x10, (byte) 0xEB, 0x00,
+                4, (byte) 0xFF, 0x4C, 0x00, 0x02
+        }, pdu.toByteArray());
+
+        // a field that doesn't fit leaves the PDU unchanged
+        assertEquals(12, pdu.remaining());
+        assertFalse(pdu.addServiceData(UUID.randomUUID(), null));
+        assertFalse(pdu.addLocalName("0123456789a"));
+        assertTrue(pdu.addLocalName("0123456789"));
+        assertEquals(AdvertisePDU.MAX_SIZE, pdu.size());
+    }
+
+    @Test
+    public void uuidSizes() throws Exception {
+        assertEquals(2, AdvertisePDU.getUuidSize(EDDYSTONE));
+        assertEquals(4, AdvertisePDU.getUuidSize(new UUID(0x1234567800001000L, 0x800000805F9B34FBL)));
+        assertEquals(16, AdvertisePDU.getUuidSize(new UUID(0x0000FEAA00001001L, 0x800000805F9B34FBL)));
+    }
+
+    @Test
+    public void fitLocalName() throws Exception {
+        assertEquals("Nexus 6P", AdvertisePDU.fitLocalName("Nexus 6P", 11));
+        assertEquals("Nexus", AdvertisePDU.fitLocalName("Nexus 6P", 5));
+        assertEquals("", AdvertisePDU.fitLocalName("Nexus 6P", 0));
+        assertNull(AdvertisePDU.fitLocalName("Nexus 6P", -1));
+
+        // multi-byte characters and surrogate pairs are never split
+        assertEquals("a\u00e9", AdvertisePDU.fitLocalName("a\u00e9\ud83d\ude00", 4));
+        assertEquals("a\u00e9\ud83d\ude00", AdvertisePDU.fitLocalName("a\u00e9\ud83d\ude00", 7));
+    }
+}
@@ -0,0 +1,132 @@
+package com.uriio.beacons.ble;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SlotSchedulerTest {
+    @Test
+    public void learnsLimit() throws Exception {
+        SlotScheduler<String> scheduler = new SlotScheduler<>(1000);
+        assertEquals(SlotScheduler.UNKNOWN_LIMIT, scheduler.getLimit());
+
+        // the first advertiser failing can't teach anything
+        scheduler.add("a", 1);
+        scheduler.onRunning("a", 0);
+        scheduler.onWaiting("a");
+        assertFalse(scheduler.onTooManyAdvertisers());
+
+        for (String item : new String[] {"a", "b", "c"}) {
+            scheduler.add(item, 1);
+            scheduler.onRunning(item, 0);
+        }
+        scheduler.add("d", 1);
+        scheduler.onRunning("d", 0);
+        scheduler.onWaiting("d");
+        assertTrue(scheduler.onTooManyAdvertisers());
+
+        assertEquals(3, scheduler.getLimit());
+        assertFalse(scheduler.hasFreeSlot());
+        assertEquals(1, scheduler.getWaitingCount());
+        assertEquals(1000, scheduler.getNextRotationTime());
+    }
+
+    @Test
+    public void weightedRotation() throws Exception {
+        SlotScheduler<String> scheduler = new SlotScheduler<>(10);
+        scheduler.setLimit(2);
+
+        String[] items = {"a", "b", "c", "d", "e"};
+        int[] weights = {2, 1, 1, 1, 1};
+        for (int i = 0; i < items.length; i++) {
+            scheduler.add(items[i], weights[i]);
+        }
+
+        int[] slotTime = new int[items.length];
+        long now = 0;
+        while (scheduler.hasFreeSlot()) {
+            scheduler.onRunning(scheduler.pickNext(), now);
+        }
+
+        for (; now < 100000; now++) {
+            for (int i = 0; i < items.length; i++) {
+                if (scheduler.isRunning(items[i])) slotTime[i]++;
+            }
+
+            String expired;
+            while (null != (expired = scheduler.pickExpired(now))) {
+                scheduler.onWaiting(expired);
+                scheduler.onRunning(scheduler.pickNext(), now);
+            }
+            assertEquals(2, scheduler.getRunningCount());
+        }
+
+        // the first item gets twice the slot time of each other item
+        int total = 0;
+        for (int time : slotTime) total += time;
+        assertEquals(total * 2 / 6.0, slotTime[0], total * 0.01);
+        for (int i = 1; i < items.length; i++) {
+            assertEquals(total / 6.0, slotTime[i], total * 0.01);
+        }
+
+        scheduler.remove("a");
+        assertEquals(4, scheduler.getRunningCount() + scheduler.getWaitingCount());
+        scheduler.clear();
+        assertNull(scheduler.pickNext());
+    }
+
+    @Test
+    public void forgetsLimit() throws Exception {
+        SlotScheduler<String> scheduler = new SlotScheduler<>(1000);
+        scheduler.add("a", 1);
+        scheduler.onRunning("a", 0);
+        scheduler.add("b", 1);
+        scheduler.onRunning("b", 0);
+        scheduler.onWaiting("b");
+        assertTrue(scheduler.onTooManyAdvertisers());
+        assertEquals(1, scheduler.getLimit());
+
+        // a slot held elsewhere for a while must not shrink the limit for good
+        scheduler.remove("b");
+        assertEquals(1, scheduler.getLimit());
+        scheduler.remove("a");
+        assertEquals(SlotScheduler.UNKNOWN_LIMIT, scheduler.getLimit());
+
+        scheduler.setLimit(2);
+        scheduler.resetLimit();
+        assertEquals(SlotScheduler.UNKNOWN_LIMIT, scheduler.getLimit());
+
+        scheduler.setLimit(2);
+        scheduler.add("a", 1);
+        scheduler.clear();
+        assertEquals(SlotScheduler.UNKNOWN_LIMIT, scheduler.getLimit());
+        assertTrue(scheduler.hasFreeSlot());
+    }
+
+    @Test
+    public void zeroDwellTime() throws Exception {
+        SlotScheduler<String> scheduler = new SlotScheduler<>(0);
+        assertEquals(1, scheduler.getDwellTime());
+        scheduler.setDwellTime(-5);
+        assertEquals(1, scheduler.getDwellTime());
+
+        scheduler.setLimit(1);
+        scheduler.add("a", 1);
+        scheduler.add("b", 1);
+        scheduler.onRunning("a", 100);
+
+        // a rotation pass, as AdvertisersManager does it, must end
+        int rotations = 0;
+        String expired;
+        while (null != (expired = scheduler.pickExpired(101))) {
+            scheduler.onWaiting(expired);
+            scheduler.onRunning(scheduler.pickNext(), 101);
+            assertTrue(++rotations <= 1);
+        }
+        assertEquals(1, rotations);
+        assertNull(scheduler.pickExpired(101));
+    }
+}
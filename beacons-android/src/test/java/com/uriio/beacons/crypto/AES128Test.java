@@ -0,0 +1,68 @@
+package com.uriio.beacons.crypto;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.SecretKeySpec;
+
+import static org.junit.Assert.assertArrayEquals;
+
+public class AES128Test {
+    private static byte[] hex(String s) {
+        byte[] result = new byte[s.length() / 2];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = (byte) Integer.parseInt(s.substring(2 * i, 2 * i + 2), 16);
+        }
+        return result;
+    }
+
+    @Test
+    public void fips197Vector() {
+        // FIPS-197, appendix C.1
+        byte[] key = hex("000102030405060708090a0b0c0d0e0f");
+        byte[] plain = hex("00112233445566778899aabbccddeeff");
+        byte[] cipher = hex("69c4e0d86a7b0430d8cdb78070b4c55a");
+
+        AES128 aes = new AES128(key);
+        byte[] out = new byte[16];
+
+        aes.encrypt(plain, 0, out, 0);
+        assertArrayEquals(cipher, out);
+
+        aes.decrypt(cipher, 0, out, 0);
+        assertArrayEquals(plain, out);
+    }
+
+    @Test
+    public void matchesJCE() throws Exception {
+        Random random = new Random(0x5eed);
+        Cipher jce = Cipher.getInstance("AES/ECB/NoPadding");
+        byte[] key = new byte[20];
+        byte[] block = new byte[20];
+        byte[] out = new byte[20];
+
+        for (int i = 0; i < 500; i++) {
+            random.nextBytes(key);
+            random.nextBytes(block);
+            int keyOffset = random.nextInt(5);
+            int offset = random.nextInt(5);
+
+            AES128 aes = new AES128(key, keyOffset);
+            SecretKeySpec keySpec = new SecretKeySpec(key, keyOffset, 16, "AES");
+
+            jce.init(Cipher.ENCRYPT_MODE, keySpec);
+            aes.encrypt(block, offset, out, 4);
+            assertArrayEquals(jce.doFinal(block, offset, 16), Arrays.copyOfRange(out, 4, 20));
+
+            jce.init(Cipher.DECRYPT_MODE, keySpec);
+            byte[] expected = jce.doFinal(block, offset, 16);
+
+            // in place
+            aes.decrypt(block, offset, block, offset);
+            assertArrayEquals(expected, Arrays.copyOfRange(block, offset, offset + 16));
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.uriio.beacons.crypto;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import static org.junit.Assert.assertArrayEquals;
+
+public class HKDFTest {
+    private static byte[] hex(String s) {
+        byte[] result = new byte[s.length() / 2];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = (byte) Integer.parseInt(s.substring(2 * i, 2 * i + 2), 16);
+        }
+        return result;
+    }
+
+    @Test
+    public void rfc5869Vectors() {
+        // test case 1
+        byte[] out = new byte[42];
+        new HKDF(hex("000102030405060708090a0b0c")).derive(hex("0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b"),
+                hex("f0f1f2f3f4f5f6f7f8f9"), out, 0, 42);
+        assertArrayEquals(hex("3cb25f25faacd57a90434f64d0362f2a2d2d0a90cf1a5a4c5db02d56ecc4c5bf34007208d5b887185865"), out);
+
+        // test case 3, no salt and no info, into an offset
+        out = new byte[44];
+        new HKDF().derive(hex("0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b"), null, out, 2, 42);
+        assertArrayEquals(hex("8da4e775a563c18f715f802a063c5a31b8a11f5c5ee1879ec3454e5f3c738d2d9d201395faa4b61a96c8"),
+                Arrays.copyOfRange(out, 2, 44));
+    }
+
+    @Test
+    public void matchesMac() throws Exception {
+        Random random = new Random(7);
+        Mac mac = Mac.getInstance("hmacSHA256");
+        HmacSHA256 hmac = new HmacSHA256();
+        byte[] out = new byte[HmacSHA256.MAC_SIZE];
+
+        // key sizes around the block size, including hashed long keys
+        for (int keySize = 0; keySize < 100; keySize++) {
+            byte[] key = new byte[keySize];
+            byte[] data = new byte[random.nextInt(200)];
+            random.nextBytes(key);
+            random.nextBytes(data);
+
+            byte[] expected = null;
+            if (keySize > 0) {
+                mac.init(new SecretKeySpec(key, "hmacSHA256"));
+                expected = mac.doFinal(data);
+            }
+
+            int split = keySize / 3;
+            hmac.setKey(Arrays.copyOf(key, split), Arrays.copyOfRange(key, split, keySize));
+            hmac.compute(data, 0, data.length, out, 0);
+            if (null != expected) assertArrayEquals(expected, out);
+
+            hmac.setKey(key, 0, keySize);
+            hmac.compute(data, 0, data.length, out, 0);
+            if (null != expected) assertArrayEquals(expected, out);
+        }
+    }
+}
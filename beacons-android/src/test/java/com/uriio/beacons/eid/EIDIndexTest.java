@@ -0,0 +1,94 @@
+package com.uriio.beacons.eid;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class EIDIndexTest {
+    private static final byte ROTATION_EXPONENT = 2;
+
+    private static long eidOf(byte[] identityKey, int epoch, byte rotationExponent) throws Exception {
+        return EIDIndex.toKey(EIDUtils.computeEID(identityKey, epoch << rotationExponent, rotationExponent), 0);
+    }
+
+    private static byte[] randomKey(Random random) {
+        byte[] key = new byte[16];
+        random.nextBytes(key);
+        return key;
+    }
+
+    @Test
+    public void windowSlides() throws Exception {
+        byte[] key = randomKey(new Random(1));
+        EIDIndex index = new MemoryEIDIndex(1);
+
+        // epochs of 4 seconds; at time 100 the beacon is in epoch 25
+        int beacon = index.add(key, ROTATION_EXPONENT, 0, null, 100);
+        assertEquals(-1, index.resolve(eidOf(key, 23, ROTATION_EXPONENT)));
+        assertEquals(beacon, index.resolve(eidOf(key, 24, ROTATION_EXPONENT)));
+        assertEquals(beacon, index.resolve(eidOf(key, 25, ROTATION_EXPONENT)));
+        assertEquals(beacon, index.resolve(eidOf(key, 26, ROTATION_EXPONENT)));
+        assertEquals(-1, index.resolve(eidOf(key, 27, ROTATION_EXPONENT)));
+
+        // same epoch, nothing changes
+        index.refresh(103);
+        assertEquals(beacon, index.resolve(eidOf(key, 24, ROTATION_EXPONENT)));
+
+        index.refresh(104);
+        assertEquals(-1, index.resolve(eidOf(key, 24, ROTATION_EXPONENT)));
+        assertEquals(beacon, index.resolve(eidOf(key, 27, ROTATION_EXPONENT)));
+
+        // a jump past the whole window re-indexes it
+        index.refresh(200);
+        assertEquals(-1, index.resolve(eidOf(key, 26, ROTATION_EXPONENT)));
+        assertEquals(beacon, index.resolve(eidOf(key, 49, ROTATION_EXPONENT)));
+        assertEquals(beacon, index.resolve(eidOf(key, 51, ROTATION_EXPONENT)));
+
+        index.remove(beacon);
+        assertEquals(-1, index.resolve(eidOf(key, 50, ROTATION_EXPONENT)));
+        index.refresh(300);
+        assertEquals(-1, index.resolve(eidOf(key, 75, ROTATION_EXPONENT)));
+    }
+
+    @Test
+    public void clockSkew() throws Exception {
+        byte[] key = randomKey(new Random(2));
+        EIDIndex index = new MemoryEIDIndex(2);
+
+        // the beacon's clock runs 8 seconds (2 epochs) ahead of ours
+        int beacon = index.add(key, ROTATION_EXPONENT, 8, null, 100);
+        for (int epoch = 25; epoch <= 29; epoch++) {
+            assertEquals(beacon, index.resolve(eidOf(key, epoch, ROTATION_EXPONENT)));
+        }
+        assertEquals(-1, index.resolve(eidOf(key, 24, ROTATION_EXPONENT)));
+        assertEquals(-1, index.resolve(eidOf(key, 30, ROTATION_EXPONENT)));
+    }
+
+    @Test
+    public void refreshesOnlyDueBeacons() throws Exception {
+        Random random = new Random(3);
+        EIDIndex index = new MemoryEIDIndex(1);
+
+        byte[][] keys = new byte[20][];
+        byte[] exponents = new byte[keys.length];
+        int[] offsets = new int[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = randomKey(random);
+            exponents[i] = (byte) (1 + random.nextInt(4));
+            offsets[i] = random.nextInt(1000);
+            assertEquals(i, index.add(keys[i], exponents[i], offsets[i], null, 0));
+        }
+        index.remove(7);
+
+        // every beacon's current EID must resolve at each refresh, whatever epoch lengths it has
+        for (int now = 1; now < 200; now += 1 + random.nextInt(5)) {
+            index.refresh(now);
+            for (int i = 0; i < keys.length; i++) {
+                int epoch = (now + offsets[i]) >>> exponents[i];
+                assertEquals(7 == i ? -1 : i, index.resolve(eidOf(keys[i], epoch, exponents[i])));
+            }
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package com.uriio.beacons.eid;
+
+import com.uriio.beacons.Callback;
+
+import org.junit.Test;
+import org.whispersystems.curve25519.Curve25519KeyPair;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class EIDRegistrarTest {
+    private static final byte ROTATION_EXPONENT = 10;
+
+    @Test
+    public void registerBatch() throws Exception {
+        LocalEIDResolver localResolver = new LocalEIDResolver();
+        ExecutorService resolverExecutor = Executors.newSingleThreadExecutor();
+        ExecutorService cryptoExecutor = Executors.newFixedThreadPool(4);
+
+        List<Curve25519KeyPair> keyPairs = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            keyPairs.add(localResolver.generateKeyPair());
+        }
+
+        final RegistrationResult[][] results = new RegistrationResult[1][];
+        final CountDownLatch done = new CountDownLatch(1);
+
+        new EIDRegistrar(new ExecutorEIDResolver(localResolver, resolverExecutor), cryptoExecutor)
+                .register(keyPairs, ROTATION_EXPONENT, new Callback<RegistrationResult[]>() {
+                    @Override
+                    public void onResult(RegistrationResult[] result, Throwable error) {
+                        assertNull(error);
+                        results[0] = result;
+                        done.countDown();
+                    }
+                });
+
+        assertTrue(done.await(30, TimeUnit.SECONDS));
+        assertEquals(keyPairs.size(), results[0].length);
+
+        int now = (int) (System.currentTimeMillis() / 1000);
+        for (int i = 0; i < keyPairs.size(); i++) {
+            RegistrationResult result = results[0][i];
+            assertNotNull(result);
+
+            // the beacon's clock runs ahead of ours by the negated time offset
+            byte[] eid = EIDUtils.computeEID(result.getIdentityKey(), now - result.getTimeOffset(), ROTATION_EXPONENT);
+            assertArrayEquals(keyPairs.get(i).getPublicKey(), localResolver.resolve(eid));
+        }
+
+        resolverExecutor.shutdown();
+        cryptoExecutor.shutdown();
+    }
+
+    @Test
+    public void registerFailsWithoutParams() throws Exception {
+        final Throwable[] errors = new Throwable[1];
+
+        AsyncEIDResolver brokenResolver = new AsyncEIDResolver() {
+            @Override
+            public void queryRegistrationParams(Callback<RegisterParams> callback) {
+                callback.onResult(null, null);
+            }
+
+            @Override
+            public void registerBeacon(byte[] beaconPublicKey, byte rotationExponent, int timeCounter,
+                                       byte[] ephemeralId, Callback<Boolean> callback) {
+                callback.onResult(true, null);
+            }
+        };
+
+        List<Curve25519KeyPair> keyPairs = new ArrayList<>();
+        keyPairs.add(new LocalEIDResolver().generateKeyPair());
+
+        Executor directExecutor = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        };
+
+        new EIDRegistrar(brokenResolver, directExecutor)
+                .register(keyPairs, ROTATION_EXPONENT, new Callback<RegistrationResult[]>() {
+                    @Override
+                    public void onResult(RegistrationResult[] result, Throwable error) {
+                        assertNull(result);
+                        errors[0] = error;
+                    }
+                });
+
+        assertNotNull(errors[0]);
+    }
+
+    @Test
+    public void registerCompletesWithBadKey() throws Exception {
+        final RegistrationResult[][] results = new RegistrationResult[1][];
+
+        AsyncEIDResolver badKeyResolver = new AsyncEIDResolver() {
+            @Override
+            public void queryRegistrationParams(Callback<RegisterParams> callback) {
+                RegisterParams params = new RegisterParams();
+                // too short for a Curve25519 public key
+                params.publicKey = new byte[5];
+                callback.onResult(params, null);
+            }
+
+            @Override
+            public void registerBeacon(byte[] beaconPublicKey, byte rotationExponent, int timeCounter,
+                                       byte[] ephemeralId, Callback<Boolean> callback) {
+                throw new IllegalStateException("Not reached");
+            }
+        };
+
+        List<Curve25519KeyPair> keyPairs = new ArrayList<>();
+        keyPairs.add(new LocalEIDResolver().generateKeyPair());
+        keyPairs.add(new LocalEIDResolver().generateKeyPair());
+
+        Executor directExecutor = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        };
+
+        new EIDRegistrar(badKeyResolver, directExecutor)
+                .register(keyPairs, ROTATION_EXPONENT, new Callback<RegistrationResult[]>() {
+                    @Override
+                    public void onResult(RegistrationResult[] result, Throwable error) {
+                        assertNull(error);
+                        results[0] = result;
+                    }
+                });
+
+        assertNotNull(results[0]);
+        assertArrayEquals(new RegistrationResult[2], results[0]);
+    }
+
+    @Test
+    public void registerCompletesWhenRejected() throws Exception {
+        final RegistrationResult[][] results = new RegistrationResult[1][];
+        LocalEIDResolver localResolver = new LocalEIDResolver();
+
+        ExecutorService shutDownExecutor = Executors.newSingleThreadExecutor();
+        shutDownExecutor.shutdown();
+
+        List<Curve25519KeyPair> keyPairs = new ArrayList<>();
+        keyPairs.add(localResolver.generateKeyPair());
+
+        Executor directExecutor = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        };
+
+        new EIDRegistrar(new ExecutorEIDResolver(localResolver, directExecutor), shutDownExecutor)
+                .register(keyPairs, ROTATION_EXPONENT, new Callback<RegistrationResult[]>() {
+                    @Override
+                    public void onResult(RegistrationResult[] result, Throwable error) {
+                        results[0] = result;
+                    }
+                });
+
+        assertNotNull(results[0]);
+        assertNull(results[0][0]);
+    }
+}
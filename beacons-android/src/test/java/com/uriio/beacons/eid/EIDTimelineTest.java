@@ -0,0 +1,73 @@
+package com.uriio.beacons.eid;
+
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class EIDTimelineTest {
+    private static final byte ROTATION_EXPONENT = 10;
+
+    private static long[] expected(byte[] identityKey, int fromEpoch, int count) throws Exception {
+        long[] eids = new long[count];
+        for (int i = 0; i < count; i++) {
+            byte[] eid = EIDUtils.computeEID(identityKey, (fromEpoch + i) << ROTATION_EXPONENT, ROTATION_EXPONENT);
+            eids[i] = EIDIndex.toKey(eid, 0);
+        }
+        return eids;
+    }
+
+    @Test
+    public void traversal() throws Exception {
+        byte[] identityKey = new byte[16];
+        new Random(10).nextBytes(identityKey);
+
+        // clocks within an epoch still cover the whole epoch; the range spans a temporary key change
+        int fromEpoch = (65536 >> ROTATION_EXPONENT) - 5;
+        EIDTimeline timeline = new EIDTimeline(identityKey, ROTATION_EXPONENT,
+                (fromEpoch << ROTATION_EXPONENT) + 3, ((fromEpoch + 9) << ROTATION_EXPONENT) + 1);
+        assertEquals(10, timeline.estimateSize());
+        assertNull(timeline.trySplit());
+
+        final long[] eids = new long[10];
+        final int[] count = {0};
+        EIDTimeline.Visitor visitor = new EIDTimeline.Visitor() {
+            @Override
+            public void onEID(int epoch, long eid) {
+                eids[count[0]++] = eid;
+            }
+        };
+
+        timeline.tryAdvance(visitor);
+        timeline.forEachRemaining(visitor);
+        assertEquals(0, timeline.estimateSize());
+        assertEquals(10, count[0]);
+        assertArrayEquals(expected(identityKey, fromEpoch, 10), eids);
+    }
+
+    @Test
+    public void parallelMatchesSequential() throws Exception {
+        byte[] identityKey = new byte[16];
+        new Random(11).nextBytes(identityKey);
+
+        int fromEpoch = 1000;
+        int count = 1500;
+        int fromClock = fromEpoch << ROTATION_EXPONENT;
+        int toClock = (fromEpoch + count - 1) << ROTATION_EXPONENT;
+
+        long[] sequential = new EIDTimeline(identityKey, ROTATION_EXPONENT, fromClock, toClock).toArray();
+        assertArrayEquals(expected(identityKey, fromEpoch, count), sequential);
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            long[] parallel = new EIDTimeline(identityKey, ROTATION_EXPONENT, fromClock, toClock).toArray(pool);
+            assertArrayEquals(sequential, parallel);
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package com.uriio.beacons.eid;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class MappedEIDIndexTest {
+    private static final int SKEW = 1;
+    private static final byte ROTATION_EXPONENT = 3;
+    /** More than fit in a new file, so the file is resized */
+    private static final int BEACONS = 80;
+
+    private File mFile;
+    private byte[][] mKeys;
+    private byte[][] mBeaconIds;
+
+    @Before
+    public void setUp() throws Exception {
+        mFile = File.createTempFile("eid", ".idx");
+        mFile.delete();
+
+        Random random = new Random(4);
+        mKeys = new byte[BEACONS][16];
+        mBeaconIds = new byte[BEACONS][EIDIndex.BEACON_ID_SIZE];
+        for (int i = 0; i < BEACONS; i++) {
+            random.nextBytes(mKeys[i]);
+            random.nextBytes(mBeaconIds[i]);
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mFile.delete();
+    }
+
+    private MappedEIDIndex createIndex(int now) throws Exception {
+        MappedEIDIndex index = new MappedEIDIndex(mFile, SKEW);
+        for (int i = 0; i < BEACONS; i++) {
+            assertEquals(i, index.add(mKeys[i], ROTATION_EXPONENT, i, mBeaconIds[i], now));
+        }
+        index.flush();
+        return index;
+    }
+
+    private void assertResolves(EIDIndex index, int now) throws Exception {
+        for (int i = 0; i < BEACONS; i++) {
+            int epoch = (now + i) >>> ROTATION_EXPONENT;
+            byte[] eid = EIDUtils.computeEID(mKeys[i], epoch << ROTATION_EXPONENT, ROTATION_EXPONENT);
+            assertEquals(i, index.resolve(eid, 0));
+            assertArrayEquals(mBeaconIds[i], index.getBeaconId(i));
+        }
+    }
+
+    @Test
+    public void reopen() throws Exception {
+        MappedEIDIndex index = createIndex(1000);
+        index.refresh(1100);
+        assertResolves(index, 1100);
+        index.flush();
+
+        MappedEIDIndex reopened = new MappedEIDIndex(mFile, SKEW);
+        assertEquals(BEACONS, reopened.size());
+        assertResolves(reopened, 1100);
+
+        reopened.refresh(1200);
+        assertResolves(reopened, 1200);
+    }
+
+    @Test
+    public void recoversInterruptedUpdate() throws Exception {
+        createIndex(1000).flush();
+
+        // as if the process died within an update: dirty flag set, lookup table lost
+        RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        try {
+            file.seek(20);
+            int tableSize = file.readInt();
+            file.seek(40);
+            file.writeInt(1);
+            file.seek(file.length() - tableSize * 16L);
+            file.write(new byte[tableSize * 16]);
+        } finally {
+            file.close();
+        }
+
+        MappedEIDIndex recovered = new MappedEIDIndex(mFile, SKEW);
+        assertResolves(recovered, 1000);
+        recovered.refresh(1100);
+        assertResolves(recovered, 1100);
+    }
+
+    @Test
+    public void rejectsOtherFiles() throws Exception {
+        createIndex(1000).flush();
+
+        try {
+            new MappedEIDIndex(mFile, SKEW + 1);
+            fail();
+        } catch (IOException ignored) {
+        }
+
+        RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        try {
+            file.writeInt(0x12345678);
+        } finally {
+            file.close();
+        }
+
+        try {
+            new MappedEIDIndex(mFile, SKEW);
+            fail();
+        } catch (IOException ignored) {
+        }
+    }
+}
@@ -2,15 +2,19 @@ package com.uriio.beacons.model;
 
 import org.junit.Test;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 public class EddystoneURLTest {
     // java.lang.RuntimeException: Method put in android.util.ArrayMap not mocked
@@ -81,4 +85,100 @@ public class EddystoneURLTest {
             assertNull(value, EddystoneURL.encode(value));
         }
     }
-}
\ No newline at end of file
+
+    @Test
+    public void encodeIntoBuffer() throws Exception {
+        byte[] out = new byte[EddystoneURL.MAX_ENCODED_LENGTH + 2];
+        for (Map.Entry<String, byte[]> entry : valid.entrySet()) {
+            if (null == entry.getKey()) continue;
+
+            int size = EddystoneURL.encode(entry.getKey(), out, 2, EddystoneURL.MAX_ENCODED_LENGTH);
+            assertArrayEquals(entry.getKey(), entry.getValue(), Arrays.copyOfRange(out, 2, 2 + size));
+        }
+
+        for (String value : unencodable) {
+            assertEquals(value, EddystoneURL.ENCODE_INVALID, EddystoneURL.encode(value, out, 0, out.length));
+        }
+
+        // 17 bytes after the scheme still fit, 18 don't
+        String url = "https://abcdefghijklmnop.com";
+        assertEquals(18, EddystoneURL.encode(url, out, 0, EddystoneURL.MAX_ENCODED_LENGTH));
+        assertEquals(EddystoneURL.ENCODE_OVERFLOW, EddystoneURL.encode(url + "/x", out, 0, EddystoneURL.MAX_ENCODED_LENGTH));
+
+        ByteBuffer buffer = ByteBuffer.allocate(32);
+        buffer.position(3);
+        assertEquals(8, EddystoneURL.encode("https://www.google.com/", buffer));
+        assertEquals(11, buffer.position());
+        assertEquals(EddystoneURL.ENCODE_OVERFLOW, EddystoneURL.encode(url + "/x", buffer));
+        assertEquals(11, buffer.position());
+    }
+
+    @Test
+    public void encodeShortest() throws Exception {
+        byte[] out = new byte[EddystoneURL.MAX_ENCODED_LENGTH];
+        for (Map.Entry<String, byte[]> entry : valid.entrySet()) {
+            if (null == entry.getKey()) continue;
+
+            // the greedy encoding of these is already optimal
+            int size = EddystoneURL.encodeShortest(entry.getKey(), out, 0, out.length);
+            assertArrayEquals(entry.getKey(), entry.getValue(), Arrays.copyOf(out, size));
+        }
+
+        for (String value : unencodable) {
+            assertEquals(value, EddystoneURL.ENCODE_INVALID, EddystoneURL.encodeShortest(value, out, 0, out.length));
+        }
+
+        // greedy takes "http://www." and then spells out "info/"
+        String url = "http://www.info/abcdefghijklm";
+        assertEquals(19, EddystoneURL.encode(url).length);
+        assertEquals(18, EddystoneURL.encodeShortest(url, out, 0, out.length));
+        assertArrayEquals(new byte[] {0x02, 'w', 'w', 'w', 0x04}, Arrays.copyOf(out, 5));
+        assertEquals(url, EddystoneURL.decode(out, 0, 18));
+
+        assertEquals(EddystoneURL.URL_ADVERTISABLE, EddystoneURL.checkAdvertisable("https://www.google.com/"));
+        assertEquals(EddystoneURL.URL_ADVERTISABLE_SHORTEST_ONLY, EddystoneURL.checkAdvertisable(url));
+        assertEquals(EddystoneURL.URL_TOO_LONG, EddystoneURL.checkAdvertisable(url + "n"));
+        assertEquals(EddystoneURL.URL_INVALID, EddystoneURL.checkAdvertisable("maybeNextTime"));
+    }
+
+    @Test
+    public void decodeIntoBuffers() throws Exception {
+        EddystoneURL.DecodedURL view = new EddystoneURL.DecodedURL();
+        StringBuilder builder = new StringBuilder();
+        char[] chars = new char[64];
+
+        for (Map.Entry<String, byte[]> entry : valid.entrySet()) {
+            String url = entry.getKey();
+            if (null == url) continue;
+            byte[] data = entry.getValue();
+
+            assertEquals(url.length(), EddystoneURL.getDecodedLength(data, 0, data.length));
+
+            assertEquals(url.length(), EddystoneURL.decode(data, 0, data.length, chars, 1));
+            assertEquals(url, new String(chars, 1, url.length()));
+
+            builder.setLength(0);
+            assertTrue(EddystoneURL.decode(data, 0, data.length, builder));
+            assertEquals(url, builder.toString());
+
+            assertTrue(view.set(data, 0, data.length));
+            assertEquals(url, view.toString());
+        }
+
+        for (byte[] bytes : undecodable) {
+            assertEquals(-1, EddystoneURL.getDecodedLength(bytes, 0, bytes.length));
+            assertEquals(-1, EddystoneURL.decode(bytes, 0, bytes.length, chars, 0));
+
+            builder.setLength(0);
+            assertFalse(EddystoneURL.decode(bytes, 0, bytes.length, builder));
+            assertEquals(0, builder.length());
+
+            assertFalse(view.set(bytes, 0, bytes.length));
+            assertEquals(0, view.length());
+        }
+
+        // doesn't fit
+        byte[] data = valid.get("https://www.google.com/");
+        assertEquals(-1, EddystoneURL.decode(data, 0, data.length, new char[10], 0));
+    }
+}
@@ -0,0 +1,109 @@
+package com.uriio.beacons.scan;
+
+import android.bluetooth.le.AdvertiseSettings;
+
+import com.uriio.beacons.ble.AdvertisePDU;
+import com.uriio.beacons.model.EddystoneURL;
+import com.uriio.beacons.model.iBeacon;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class BeaconParserTest {
+    private static final UUID EDDYSTONE = new UUID(0x0000FEAA00001000L, 0x800000805F9B34FBL);
+
+    private static byte[] eddystoneRecord(byte[] frame) {
+        AdvertisePDU pdu = new AdvertisePDU();
+        pdu.addFlags(AdvertisePDU.FLAGS_GENERAL_DISCOVERABLE);
+        pdu.addServiceUuids(Arrays.asList(EDDYSTONE));
+        pdu.addServiceData(EDDYSTONE, frame);
+        return pdu.toByteArray();
+    }
+
+    @Test
+    public void eddystone() throws Exception {
+        BeaconParser parser = new BeaconParser();
+
+        byte[] uid = new byte[20];
+        uid[1] = -20;
+        for (int i = 0; i < 16; i++) uid[2 + i] = (byte) (i + 1);
+        assertEquals(BeaconParser.FRAME_EDDYSTONE_UID, parser.parse(eddystoneRecord(uid)));
+        assertEquals(-20, parser.getTxPower());
+        assertEquals(0x0102030405060708L, parser.getNamespaceHigh());
+        assertEquals(0x090A, parser.getNamespaceLow());
+        assertEquals(0x0B0C0D0E0F10L, parser.getInstance());
+
+        byte[] url = new byte[20];
+        url[0] = 0x10;
+        url[1] = -21;
+        int size = EddystoneURL.encode("https://www.example.com/", url, 2, 18);
+        byte[] urlRecord = eddystoneRecord(Arrays.copyOf(url, 2 + size));
+        assertEquals(BeaconParser.FRAME_EDDYSTONE_URL, parser.parse(urlRecord));
+        assertEquals(-21, parser.getTxPower());
+        assertEquals("https://www.example.com/", parser.getUrl().toString());
+
+        byte[] tlm = {0x20, 0, 0x0B, (byte) 0xB8, 0x15, (byte) 0x80, 0, 0, 1, 0, (byte) 0xFF, 0, 0, 0};
+        assertEquals(BeaconParser.FRAME_EDDYSTONE_TLM, parser.parse(eddystoneRecord(tlm)));
+        assertEquals(3000, parser.getBatteryVoltage());
+        assertEquals(0x1580, parser.getTemperature());
+        assertEquals(256, parser.getAdvertisedPDUCount());
+        assertEquals(0xFF000000L, parser.getUptime());
+
+        byte[] eid = {0x30, -22, 1, 2, 3, 4, 5, 6, 7, (byte) 0x88};
+        assertEquals(BeaconParser.FRAME_EDDYSTONE_EID, parser.parse(eddystoneRecord(eid)));
+        assertEquals(0x0102030405060788L, parser.getEID());
+
+        // truncated frames and invalid URLs are not beacon frames
+        assertEquals(BeaconParser.FRAME_NONE, parser.parse(eddystoneRecord(Arrays.copyOf(uid, 17))));
+        assertEquals(BeaconParser.FRAME_NONE, parser.parse(Arrays.copyOf(urlRecord, urlRecord.length - 1)));
+        url[2] = 0x20;
+        assertEquals(BeaconParser.FRAME_EDDYSTONE_URL, parser.parse(eddystoneRecord(Arrays.copyOf(url, 3))));
+        assertNull(parser.getUrl());
+    }
+
+    @Test
+    public void iBeacon() throws Exception {
+        BeaconParser parser = new BeaconParser();
+
+        byte[] data = new byte[23];
+        data[0] = 0x02;
+        data[1] = 0x15;
+        for (int i = 0; i < 16; i++) data[2 + i] = (byte) (0xF0 + i);
+        data[18] = 0x12;
+        data[19] = 0x34;
+        data[20] = (byte) 0xAB;
+        data[21] = (byte) 0xCD;
+        data[22] = -59;
+
+        AdvertisePDU pdu = new AdvertisePDU();
+        pdu.addManufacturerData(0x004C, data);
+        assertEquals(BeaconParser.FRAME_IBEACON, parser.parse(pdu.toByteArray()));
+        assertEquals(0xF0F1F2F3F4F5F6F7L, parser.getProximityUUIDMostSignificantBits());
+        assertEquals(0xF8F9FAFBFCFDFEFFL, parser.getProximityUUIDLeastSignificantBits());
+        assertEquals(0x1234, parser.getMajor());
+        assertEquals(0xABCD, parser.getMinor());
+        assertEquals(-59, parser.getTxPower());
+
+        // the iBeacon indicator requires Apple's company ID, AltBeacon doesn't
+        pdu.clear();
+        pdu.addManufacturerData(0x0118, data);
+        assertEquals(BeaconParser.FRAME_NONE, parser.parse(pdu.toByteArray()));
+
+        data[0] = (byte) 0xBE;
+        data[1] = (byte) 0xAC;
+        pdu.clear();
+        pdu.addManufacturerData(0x0118, data);
+        assertEquals(BeaconParser.FRAME_ALTBEACON, parser.parse(pdu.toByteArray()));
+        assertEquals(0xABCD, parser.getMinor());
+
+        // a model broadcasting AltBeacon, with any flags but Apple's, hashes as the frame it sends
+        iBeacon beacon = new iBeacon(Arrays.copyOfRange(data, 2, 18), 0x11234, 0xABCD,
+                AdvertiseSettings.ADVERTISE_MODE_BALANCED, AdvertiseSettings.ADVERTISE_TX_POWER_HIGH, 1, null);
+        assertEquals(BeaconIdentity.hash(parser), BeaconIdentity.hash(beacon));
+    }
+}
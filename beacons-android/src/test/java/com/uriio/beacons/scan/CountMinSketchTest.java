@@ -0,0 +1,60 @@
+package com.uriio.beacons.scan;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class CountMinSketchTest {
+    private static long eid(int i) {
+        return BeaconIdentity.hash(BeaconParser.FRAME_EDDYSTONE_EID, i * 0x9E3779B97F4A7C15L, 0, 0);
+    }
+
+    @Test
+    public void estimate() throws Exception {
+        CountMinSketch sketch = new CountMinSketch(4, 1000);
+        assertEquals(1024, sketch.getWidth());
+
+        int[] counts = new int[2000];
+        Random random = new Random(18);
+        for (int i = 0; i < 100000; i++) {
+            // a few beacons are seen much more often than the others
+            int beacon = random.nextInt(4) == 0 ? random.nextInt(10) : random.nextInt(counts.length);
+            counts[beacon]++;
+            sketch.add(eid(beacon), 1);
+        }
+
+        assertEquals(100000, sketch.getTotal());
+        int bound = (int) (Math.E / sketch.getWidth() * sketch.getTotal());
+        int tooHigh = 0;
+        for (int i = 0; i < counts.length; i++) {
+            int estimate = sketch.estimate(eid(i));
+            assertTrue(estimate >= counts[i]);
+            if (estimate > counts[i] + bound) tooHigh++;
+        }
+        // at most exp(-4), i.e. 2% are expected to exceed the bound
+        assertTrue(tooHigh < counts.length / 50);
+    }
+
+    @Test
+    public void merge() throws Exception {
+        CountMinSketch first = new CountMinSketch(3, 256);
+        CountMinSketch second = new CountMinSketch(3, 256);
+        CountMinSketch both = new CountMinSketch(3, 256);
+
+        for (int i = 0; i < 5000; i++) {
+            (i % 3 == 0 ? first : second).add(eid(i % 700), 2);
+            both.add(eid(i % 700), 2);
+        }
+
+        CountMinSketch merged = CountMinSketch.fromByteArray(first.toByteArray());
+        merged.merge(second);
+        assertArrayEquals(both.toByteArray(), merged.toByteArray());
+
+        assertNull(CountMinSketch.fromByteArray(new byte[16]));
+    }
+}
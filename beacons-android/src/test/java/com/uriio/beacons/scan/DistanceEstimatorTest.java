@@ -0,0 +1,66 @@
+package com.uriio.beacons.scan;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DistanceEstimatorTest {
+    @Test
+    public void distance() throws Exception {
+        assertEquals(1f, DistanceEstimator.estimateDistance(-59, -59, 2), 1e-6f);
+        assertEquals(10f, DistanceEstimator.estimateDistance(-59, -79, 2), 1e-4f);
+        assertEquals(10f, DistanceEstimator.estimateDistance(-59, -89, 3), 1e-4f);
+
+        DistanceEstimator estimator = new DistanceEstimator(2, DistanceEstimator.FILTER_EWMA);
+        assertTrue(Float.isNaN(estimator.getDistance(0)));
+        estimator.setOneMeterTxPower(0, -65);
+        estimator.update(0, -85);
+        assertEquals(10f, estimator.getDistance(0), 1e-4f);
+    }
+
+    @Test
+    public void batchMatchesSingle() throws Exception {
+        for (int filter = DistanceEstimator.FILTER_EWMA; filter <= DistanceEstimator.FILTER_KALMAN; filter++) {
+            DistanceEstimator single = new DistanceEstimator(100, filter);
+            DistanceEstimator batch = new DistanceEstimator(100, filter);
+
+            Random random = new Random(20);
+            int[] slots = new int[500];
+            int[] rssi = new int[500];
+            for (int round = 0; round < 20; round++) {
+                for (int i = 0; i < slots.length; i++) {
+                    slots[i] = random.nextInt(100);
+                    rssi[i] = -60 - random.nextInt(30);
+                    single.update(slots[i], rssi[i]);
+                }
+                batch.update(slots, rssi, slots.length);
+            }
+
+            float[] singleDistances = new float[100];
+            float[] batchDistances = new float[100];
+            single.getDistances(singleDistances);
+            for (int slot = 0; slot < 100; slot++) {
+                slots[slot] = slot;
+            }
+            batch.getDistances(slots, 100, batchDistances);
+
+            for (int slot = 0; slot < 100; slot++) {
+                assertEquals(single.getRssi(slot), batch.getRssi(slot), 0);
+                assertEquals(singleDistances[slot], batchDistances[slot], 0);
+            }
+        }
+    }
+
+    @Test
+    public void kalmanConverges() throws Exception {
+        DistanceEstimator estimator = new DistanceEstimator(1, DistanceEstimator.FILTER_KALMAN);
+        Random random = new Random(21);
+        for (int i = 0; i < 200; i++) {
+            estimator.update(0, -70 + (int) Math.round(random.nextGaussian() * 4));
+        }
+        assertEquals(-70, estimator.getRssi(0), 2);
+    }
+}
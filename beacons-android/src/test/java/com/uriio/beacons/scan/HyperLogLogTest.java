@@ -0,0 +1,51 @@
+package com.uriio.beacons.scan;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class HyperLogLogTest {
+    private static long uid(int instance) {
+        return BeaconIdentity.hash(BeaconParser.FRAME_EDDYSTONE_UID, 0x0123456789abcdefL, instance, 0);
+    }
+
+    @Test
+    public void estimate() throws Exception {
+        HyperLogLog sketch = new HyperLogLog(12);
+        assertEquals(0, sketch.estimate());
+
+        // small cardinalities are nearly exact
+        for (int i = 0; i < 100; i++) {
+            sketch.add(uid(i));
+            sketch.add(uid(i));
+        }
+        assertEquals(100, sketch.estimate(), 2);
+
+        for (int i = 100; i < 100000; i++) {
+            sketch.add(uid(i));
+        }
+        // standard error is 1.6% at this precision
+        assertEquals(100000, sketch.estimate(), 100000 * 0.05);
+    }
+
+    @Test
+    public void merge() throws Exception {
+        HyperLogLog first = new HyperLogLog(10);
+        HyperLogLog second = new HyperLogLog(10);
+        HyperLogLog union = new HyperLogLog(10);
+
+        for (int i = 0; i < 30000; i++) {
+            (i < 20000 ? first : second).add(uid(i));
+            if (i >= 10000) second.add(uid(i - 10000));
+            union.add(uid(i));
+        }
+
+        HyperLogLog merged = HyperLogLog.fromByteArray(first.toByteArray());
+        merged.merge(second);
+        assertArrayEquals(union.toByteArray(), merged.toByteArray());
+
+        assertNull(HyperLogLog.fromByteArray(new byte[] {10, 0}));
+    }
+}
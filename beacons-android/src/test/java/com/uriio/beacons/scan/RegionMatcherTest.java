@@ -0,0 +1,90 @@
+package com.uriio.beacons.scan;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RegionMatcherTest {
+    private final List<String> mEvents = new ArrayList<>();
+
+    private final RegionMatcher.Listener mListener = new RegionMatcher.Listener() {
+        @Override
+        public void onRegionEnter(int region) {
+            mEvents.add("enter " + region);
+        }
+
+        @Override
+        public void onRegionExit(int region) {
+            mEvents.add("exit " + region);
+        }
+    };
+
+    @Test
+    public void wildcards() throws Exception {
+        RegionMatcher matcher = new RegionMatcher(mListener, 4);
+
+        byte[] uuid = new byte[16];
+        Arrays.fill(uuid, (byte) 0x11);
+        int anyMajor = matcher.addIBeaconRegion(uuid, RegionMatcher.ANY, RegionMatcher.ANY);
+        int major = matcher.addIBeaconRegion(uuid, 7, RegionMatcher.ANY);
+        int exact = matcher.addIBeaconRegion(uuid, 7, 9);
+
+        byte[] namespaceInstance = new byte[16];
+        Arrays.fill(namespaceInstance, (byte) 0x22);
+        int namespace = matcher.addEddystoneRegion(namespaceInstance, false);
+        int instance = matcher.addEddystoneRegion(namespaceInstance, true);
+
+        // filler regions that never match, forcing the tables to grow
+        for (int i = 0; i < 1000; i++) {
+            matcher.addIBeaconRegion(uuid, 1000 + i, i);
+        }
+        assertEquals(1005, matcher.getRegionCount());
+
+        long id = 0x1111111111111111L;
+        assertEquals(3, matcher.match(BeaconParser.FRAME_IBEACON, id, id, 7 << 16 | 9, 0));
+        assertEquals(2, matcher.match(BeaconParser.FRAME_ALTBEACON, id, id, 7 << 16 | 8, 0));
+        assertEquals(1, matcher.match(BeaconParser.FRAME_IBEACON, id, id, 6 << 16 | 9, 0));
+        assertEquals(0, matcher.match(BeaconParser.FRAME_IBEACON, id, id + 1, 7 << 16 | 9, 0));
+        assertTrue(matcher.isInside(anyMajor) && matcher.isInside(major) && matcher.isInside(exact));
+
+        long ns = 0x2222222222222222L;
+        assertEquals(1, matcher.match(BeaconParser.FRAME_EDDYSTONE_UID, ns, ns ^ 1, 0, 0));
+        assertEquals(2, matcher.match(BeaconParser.FRAME_EDDYSTONE_UID, ns, ns, 0, 0));
+        assertTrue(matcher.isInside(namespace) && matcher.isInside(instance));
+
+        matcher.removeRegion(major);
+        assertEquals(2, matcher.match(BeaconParser.FRAME_IBEACON, id, id, 7 << 16 | 9, 0));
+    }
+
+    @Test
+    public void debouncing() throws Exception {
+        RegionMatcher matcher = new RegionMatcher(mListener);
+        matcher.setDebounce(2, 100);
+
+        byte[] uuid = new byte[16];
+        int region = matcher.addIBeaconRegion(uuid, RegionMatcher.ANY, RegionMatcher.ANY);
+
+        // sightings too far apart don't enter
+        matcher.match(BeaconParser.FRAME_IBEACON, 0, 0, 1, 0);
+        matcher.match(BeaconParser.FRAME_IBEACON, 0, 0, 1, 200);
+        assertFalse(matcher.isInside(region));
+
+        matcher.match(BeaconParser.FRAME_IBEACON, 0, 0, 1, 250);
+        assertTrue(matcher.isInside(region));
+
+        // short gaps don't exit
+        assertEquals(0, matcher.update(340));
+        matcher.match(BeaconParser.FRAME_IBEACON, 0, 0, 2, 340);
+        assertEquals(0, matcher.update(440));
+        assertEquals(1, matcher.update(441));
+        assertFalse(matcher.isInside(region));
+
+        assertEquals(Arrays.asList("enter " + region, "exit " + region), mEvents);
+    }
+}
@@ -0,0 +1,90 @@
+package com.uriio.beacons.scan;
+
+import org.junit.Test;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SightingAggregatorTest {
+    @Test
+    public void stats() throws Exception {
+        SightingAggregator aggregator = new SightingAggregator(4);
+        aggregator.setRssiSmoothing(0.5f);
+
+        int slot = aggregator.add(BeaconParser.FRAME_IBEACON, 1, 2, 3, -60, 100);
+        assertEquals(slot, aggregator.add(BeaconParser.FRAME_IBEACON, 1, 2, 3, -70, 110));
+        assertEquals(slot, aggregator.add(BeaconParser.FRAME_IBEACON, 1, 2, 3, -50, 120));
+
+        assertEquals(1, aggregator.size());
+        assertEquals(3, aggregator.getCount(slot));
+        assertEquals(100, aggregator.getFirstSeen(slot));
+        assertEquals(120, aggregator.getLastSeen(slot));
+        assertEquals(-70, aggregator.getRssiMin(slot));
+        assertEquals(-50, aggregator.getRssiMax(slot));
+        assertEquals(-57.5f, aggregator.getRssiAverage(slot), 0);
+
+        // same identity bytes of another frame kind are another beacon
+        assertEquals(-1, aggregator.find(BeaconParser.FRAME_ALTBEACON, 1, 2, 3));
+    }
+
+    @Test
+    public void evictsLeastRecentlySeen() throws Exception {
+        final int capacity = 50;
+        SightingAggregator aggregator = new SightingAggregator(capacity);
+        final int[] evicted = {0};
+        aggregator.setEvictionListener(new SightingAggregator.EvictionListener() {
+            @Override
+            public void onEvicted(SightingAggregator aggregator, int slot) {
+                evicted[0]++;
+            }
+        });
+
+        // reference: access-ordered map of id to {count, last seen}
+        LinkedHashMap<Long, int[]> expected = new LinkedHashMap<Long, int[]>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, int[]> eldest) {
+                return size() > capacity;
+            }
+        };
+
+        Random random = new Random(17);
+        for (int time = 0; time < 20000; time++) {
+            long id = random.nextInt(80);
+            int[] stats = expected.get(id);
+            if (null == stats) {
+                expected.put(id, stats = new int[2]);
+            }
+            stats[0]++;
+            stats[1] = time;
+
+            int slot = aggregator.add(BeaconParser.FRAME_EDDYSTONE_EID, id, 0, 0, -80, time);
+            assertEquals(stats[0], aggregator.getCount(slot));
+
+            if (0 == random.nextInt(100)) {
+                int removed = aggregator.removeOlderThan(time - 30);
+                Iterator<int[]> iterator = expected.values().iterator();
+                while (iterator.hasNext()) {
+                    if (iterator.next()[1] < time - 30) {
+                        iterator.remove();
+                        removed--;
+                    }
+                }
+                assertEquals(0, removed);
+            }
+        }
+
+        assertEquals(expected.size(), aggregator.size());
+        int slot = aggregator.getNewest();
+        Long[] order = expected.keySet().toArray(new Long[0]);
+        for (int i = order.length - 1; i >= 0; i--, slot = aggregator.getOlder(slot)) {
+            assertEquals((long) order[i], aggregator.getId0(slot));
+        }
+        assertEquals(-1, slot);
+        assertTrue(evicted[0] > 0);
+    }
+}